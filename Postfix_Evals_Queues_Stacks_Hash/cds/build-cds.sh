@@ -0,0 +1,17 @@
+#!/bin/sh
+# Compiles the evaluator into cds/computer.jar (CDS only archives classes loaded from jars) and
+# creates an application class data sharing archive (cds/computer.jsa) with every class loaded
+# while running the training programs. Requires a JDK 13 or newer (dynamic archives).
+# Run it from the project directory:
+#   sh cds/build-cds.sh
+# and then start the evaluator with the archive:
+#   java -XX:SharedArchiveFile=cds/computer.jsa -cp cds/computer.jar Computer program.txt false
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf cds/classes
+mkdir -p cds/classes
+javac --release 11 -d cds/classes src/*.java
+jar cf cds/computer.jar -C cds/classes .
+java -XX:ArchiveClassesAtExit=cds/computer.jsa -cp cds/computer.jar WarmImage train cds/training/*.txt
+echo "Archive written to cds/computer.jsa"
@@ -0,0 +1,31 @@
+#!/bin/sh
+# Measures the average wall time of running a short program through Computer in a new JVM,
+# without class data sharing, with the default JDK archive and with the application archive
+# created by cds/build-cds.sh. Run it from the project directory:
+#   sh cds/startup-bench.sh [program] [runs]
+set -e
+cd "$(dirname "$0")/.."
+
+program=${1:-cds/training/assignments.txt}
+runs=${2:-20}
+
+if [ ! -f cds/computer.jsa ]; then
+	sh cds/build-cds.sh
+fi
+
+measure() {
+	label=$1
+	shift
+	start=$(date +%s%N)
+	i=0
+	while [ $i -lt "$runs" ]; do
+		java "$@" -cp cds/computer.jar Computer "$program" false > /dev/null
+		i=$((i + 1))
+	done
+	end=$(date +%s%N)
+	echo "$label: $(( (end - start) / runs / 1000000 )) ms per run"
+}
+
+measure "no CDS     " -Xshare:off
+measure "JDK CDS    "
+measure "AppCDS     " -XX:SharedArchiveFile=cds/computer.jsa
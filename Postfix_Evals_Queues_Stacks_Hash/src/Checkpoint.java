@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class saves and restores the state of a Computer (its program stack, its symbol table, its
+ * program cursor and its position) to and from a binary file, so a long running program can be
+ * resumed after a restart without executing again the instructions it had already executed.
+ * The size of a checkpoint only depends on the live state of the computer, not on the length of
+ * the program. The file has the following layout (all numbers are big endian):
+ * <pre>
+ * int magic, int version, long fingerprint and int length of the program (see
+ *     Program.fingerprint()), long cursor (index of the next instruction), long position
+ *     (symbols processed so far),
+ * int stack size, then for each element from bottom to top: byte tag (0 integer, 1 identifier)
+ *     followed by an int value or an int length and the UTF-8 bytes of the identifier,
+ * int table capacity, int number of variables, then for each variable: int length and the
+ *     UTF-8 bytes of the name followed by an int value.
+ * </pre>
+ * A new checkpoint is first written to a temporary file which then replaces the old one, so a
+ * crash in the middle of a save never leaves a corrupted checkpoint behind. A checkpoint is only
+ * restored for the program that saved it, since its cursor means nothing in another program.
+ *
+ * @author Sergio Delgado
+ */
+public class Checkpoint
+{
+	private static final int MAGIC = 0x5046434B;   // "PFCK"
+	private static final int VERSION = 3;   // version 1 saved a symbol offset as the cursor, version 2 no program
+	private static final int HEADER = 36;   // bytes before the program stack
+	private static final byte INTEGER = 0;
+	private static final byte IDENTIFIER = 1;
+
+	private Path file;           // checkpoint file
+	private Path tempFile;       // file where a new checkpoint is written before replacing the old one
+	private ByteBuffer buffer;   // reusable buffer, it only grows when the state does
+
+
+	/**
+	 * Constructor that receives the name of the checkpoint file.
+	 * @param filename String with the name of the file where the checkpoints are saved.
+	 */
+	public Checkpoint(String filename)
+	{
+		file = Paths.get(filename);
+		tempFile = Paths.get(filename + ".tmp");
+		buffer = ByteBuffer.allocateDirect(4096);
+	}
+
+
+	/**
+	 * Makes sure the buffer has room for the given number of bytes, keeping its content.
+	 * @param bytes int value with the number of bytes about to be written.
+	 */
+	private void ensureRemaining(int bytes)
+	{
+		if (buffer.remaining() < bytes)
+		{
+			ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+	}
+
+
+	/**
+	 * Writes a string into the buffer as an int length followed by its UTF-8 bytes.
+	 * @param value String to write.
+	 */
+	private void putString(String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ensureRemaining(4 + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+
+	/**
+	 * Reads a count from the given buffer, checking that the rest of the buffer can hold that many
+	 * elements of the given size.
+	 * @param in ByteBuffer to read from.
+	 * @param bytes int with the minimum size of an element.
+	 * @return int with the count read.
+	 * @throws IOException If the count is negative or the buffer is too short for it.
+	 */
+	private int getCount(ByteBuffer in, int bytes) throws IOException
+	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / bytes)
+			throw new IOException("Truncated or corrupted checkpoint file (count " + count + "): " + file);
+		return count;
+	}
+
+
+	/**
+	 * Reads a string written by putString from the given buffer.
+	 * @param in ByteBuffer to read from.
+	 * @return String read.
+	 * @throws IOException If the length of the string is invalid.
+	 */
+	private String getString(ByteBuffer in) throws IOException
+	{
+		byte[] bytes = new byte[getCount(in, 1)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Saves the program stack, the symbol table and the position of the computer, and the program
+	 * and its cursor. Complexity O(n), where n is the number of elements in the stack and in the
+	 * table (the fingerprint of the program is O(m) in the length of the program).
+	 * @param computer Computer whose state is saved.
+	 * @param program Program the computer is running.
+	 * @param cursor long value with the index of the instruction where the program has to resume.
+	 * @throws IOException Handles the exceptions related to writing the checkpoint file.
+	 */
+	public void save(Computer computer, Program program, long cursor) throws IOException
+	{
+		buffer.clear();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(program.fingerprint());
+		buffer.putInt(program.length());
+		buffer.putLong(cursor);
+		buffer.putLong(computer.getPosition());
+
+		Object[] stack = computer.progStack.toArray();   // top of the stack is element 0
+		buffer.putInt(stack.length);
+		for (int i = stack.length - 1; i >= 0; i--)
+		{
+			if (stack[i] instanceof Integer)
+			{
+				ensureRemaining(5);
+				buffer.put(INTEGER);
+				buffer.putInt((Integer)stack[i]);
+			}
+			else
+			{
+				ensureRemaining(1);
+				buffer.put(IDENTIFIER);
+				putString(stack[i].toString());
+			}
+		}
+
+		TableEntry<String,Integer>[] variables = computer.symbols.entries();
+		ensureRemaining(8);
+		buffer.putInt(computer.symbols.getCapacity());
+		buffer.putInt(variables.length);
+		for (TableEntry<String,Integer> variable : variables)
+		{
+			putString(variable.getKey());
+			ensureRemaining(4);
+			buffer.putInt(variable.getValue());
+		}
+
+		buffer.flip();
+		try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (buffer.hasRemaining())
+				out.write(buffer);
+			out.force(false);
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Restores the state of the computer from the checkpoint file, replacing its program stack, its
+	 * symbol table and its position, and returns the program cursor. If there is no checkpoint
+	 * file nothing is changed. The computer can't be inside a frame of its symbol table (see
+	 * SymbolTable.pushFrame()), since a checkpoint only saves the bindings visible at the moment.
+	 * The whole file is checked before the computer is changed, so a checkpoint saved by another
+	 * program, or a truncated or corrupted file, leaves the computer as it was.
+	 * @param computer Computer whose state is restored.
+	 * @param program Program the computer is going to resume, which must be the one that saved
+	 * the checkpoint.
+	 * @return long value with the index of the instruction where the program has to resume, or -1
+	 * if there was no checkpoint to restore.
+	 * @throws IOException Handles the exceptions related to reading the file, or a file that is
+	 * not a valid checkpoint of the program.
+	 * @throws IllegalStateException If the symbol table of the computer has open frames.
+	 */
+	public long restore(Computer computer, Program program) throws IOException
+	{
+		if (computer.symbols.getFrameDepth() > 0)
+			throw new IllegalStateException("Can't restore a checkpoint while " + computer.symbols.getFrameDepth()
+					+ " frames of the symbol table are open");
+		if (!Files.exists(file))
+			return -1;
+
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			in = ByteBuffer.allocate((int)channel.size());
+			while (in.hasRemaining() && channel.read(in) >= 0);
+			in.flip();
+		}
+
+		if (in.remaining() < HEADER || in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException("Not a valid checkpoint file: " + file);
+		if (in.getLong() != program.fingerprint() || in.getInt() != program.length())
+			throw new IOException("The checkpoint file " + file + " was saved by another program");
+
+		long cursor = in.getLong();
+		long position = in.getLong();
+		if (cursor < 0 || cursor > program.length() || position < 0)
+			throw new IOException("Invalid cursor " + cursor + " or position " + position + " in checkpoint file: " + file);
+
+		Object[] stack;
+		SymbolTable<Integer> symbols;
+		try
+		{
+			stack = new Object[getCount(in, 5)];   // an element takes at least 5 bytes
+			for (int i = 0; i < stack.length; i++)
+			{
+				byte tag = in.get();
+				if (tag == INTEGER)
+					stack[i] = in.getInt();
+				else if (tag == IDENTIFIER)
+					stack[i] = getString(in);
+				else
+					throw new IOException("Invalid element in checkpoint file: " + file);
+			}
+
+			int capacity = in.getInt();
+			if (capacity < 1)
+				throw new IOException("Invalid table capacity " + capacity + " in checkpoint file: " + file);
+			symbols = new SymbolTable<>(capacity);
+			int variables = getCount(in, 8);   // a variable takes at least 8 bytes
+			for (int i = 0; i < variables; i++)
+			{
+				String name = getString(in);
+				symbols.put(name, in.getInt());
+			}
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truncated checkpoint file: " + file);
+		}
+		if (in.hasRemaining())
+			throw new IOException("Unexpected bytes at the end of checkpoint file: " + file);
+
+		computer.setPosition(position);
+		computer.progStack.clear();
+		for (Object element : stack)
+			computer.progStack.push(element);
+		computer.symbols = symbols;
+
+		return cursor;
+	}
+
+
+	/**
+	 * Deletes the checkpoint file (if it exists), so the next run starts from the beginning.
+	 * @throws IOException Handles the exceptions related to deleting the file.
+	 */
+	public void delete() throws IOException
+	{
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(tempFile);
+	}
+
+
+	/**
+	 * Tests the class Checkpoint with calls to its methods.
+	 * @param args Not used.
+	 * @throws IOException Handles the exceptions related to the checkpoint file.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Path path = Files.createTempFile("checkpoint", ".bin");
+		Checkpoint checkpoint = new Checkpoint(path.toString());
+		checkpoint.delete();
+
+		Program program = Program.compile(Computer.stringToNodeQueue("7 a x 3 = y x 2 * = print print"));
+		Computer computer = new Computer();
+		computer.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		if (checkpoint.restore(computer, program) == -1 && computer.getPosition() == 0)
+			System.out.println("Yay 1");   // no checkpoint yet
+
+		int pc = computer.execute(program, 0, 10);   // stops before the prints
+		checkpoint.save(computer, program, pc);
+		Computer resumed = new Computer();
+		resumed.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		long cursor = checkpoint.restore(resumed, program);
+		if (cursor == 10 && resumed.getPosition() == computer.getPosition()
+				&& resumed.progStack.toString().equals(computer.progStack.toString()) && resumed.progStack.peek().equals("a")
+				&& resumed.symbols.get("x") == 3 && resumed.symbols.get("y") == 6)
+			System.out.println("Yay 2");
+
+		if (resumed.execute(program, (int)cursor, 100) == program.length() && resumed.getError() == null
+				&& resumed.progStack.isEmpty() && resumed.getPosition() == 12)
+			System.out.println("Yay 3");
+
+		resumed.symbols.pushFrame();
+		try
+		{
+			checkpoint.restore(resumed, program);
+		}
+		catch (IllegalStateException e)
+		{
+			if (resumed.symbols.getFrameDepth() == 1 && resumed.getPosition() == 12)
+				System.out.println("Yay 4");   // nothing restored while a frame is open
+		}
+		resumed.symbols.popFrame();
+
+		Program other = Program.compile(Computer.stringToNodeQueue("7 a x 3 = y x 3 * = print print"));
+		try
+		{
+			checkpoint.restore(resumed, other);
+		}
+		catch (IOException e)
+		{
+			if (e.getMessage().contains("another program") && resumed.getPosition() == 12)
+				System.out.println("Yay 5");
+		}
+
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));   // the last value is cut
+		try
+		{
+			checkpoint.restore(resumed, program);
+		}
+		catch (IOException e)
+		{
+			if (e.getMessage().startsWith("Truncated") && resumed.getPosition() == 12 && resumed.symbols.get("x") == 3
+					&& resumed.progStack.isEmpty())
+				System.out.println("Yay 6");   // the computer is left as it was
+		}
+
+		checkpoint.delete();
+		if (!Files.exists(path) && checkpoint.restore(resumed, program) == -1)
+			System.out.println("Yay 7");
+	}
+}
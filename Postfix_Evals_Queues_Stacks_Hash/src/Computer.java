@@ -1,6 +1,9 @@
 import java.util.Scanner;
-import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 
 /**
  * This class coordinates all the necessary procedures to read a file and load its content
@@ -13,53 +16,107 @@ import java.io.IOException;
  */
 public class Computer {
 	
+	private long position;   // number of symbols processed so far (program cursor)
+	private TraceListener trace;   // receives the changes made by each symbol (null when not tracing)
+	private PrintStream out;       // where the print symbol writes
+	private ProgramError error;    // error that stopped the program (null while there is none)
+	private ConstantPool constants;   // Integer of each literal processed from a queue
+	private MappedSymbolTable imports;   // read-only variables of a previous program (null if none)
+	private Profile profile;       // counts the instructions executed (null when not profiling)
+	
 	public Computer()
 	{
+		position = 0;
+		out = System.out;
+		constants = new ConstantPool();
+	}
+	
+	
+	/**
+	 * Sets the stream the print symbol writes to (System.out by default).
+	 * @param out PrintStream that receives the output of the programs.
+	 */
+	public void setOutput(PrintStream out)
+	{
+		this.out = out;
+	}
+	
+	
+	/**
+	 * Sets the variables saved by a previous program (see MappedSymbolTable) that this computer
+	 * can read. A variable of the symbol table hides an imported variable with the same name,
+	 * and assignments always go to the symbol table, so the imported file is never changed.
+	 * @param imports MappedSymbolTable with the imported variables, or null to stop importing.
+	 */
+	public void setImports(MappedSymbolTable imports)
+	{
+		this.imports = imports;
+	}
+	
+	
+	/**
+	 * Empties the program stack and the symbol table and moves the program cursor back to 0,
+	 * so this computer can run another program reusing the storage it already allocated.
+	 */
+	public void reset()
+	{
+		progStack.clear();
+		symbols.clear();
+		constants.clear();
+		position = 0;
+		error = null;
+	}
+	
+	
+	/**
+	 * Returns the error that stopped the last program, if any.
+	 * @return ProgramError found by the validation or at run time, or null if there was none.
+	 */
+	public ProgramError getError()
+	{
+		return error;
+	}
+	
+	
+	/**
+	 * Returns the program cursor, which is the number of symbols of the program queue that
+	 * have been processed by this computer so far.
+	 * @return long value with the offset of the next symbol to process.
+	 */
+	public long getPosition()
+	{
+		return position;
+	}
+	
+	
+	/**
+	 * Sets the number of symbols processed so far, when the state of the computer is restored
+	 * (see Checkpoint).
+	 * @param position long value with the number of symbols processed.
+	 */
+	void setPosition(long position)
+	{
+		this.position = position;
 	}
 	
 	
 	/**
-	 * Given a file name, it opens that file in a scanner and creates a queue of nodes.
+	 * Given a file name, it opens that file and creates a queue of nodes.
  	 * The head of the queue of nodes is the start of the queue. The values in the nodes are the
- 	 * strings read in each time next() is called on the scanner
+ 	 * symbols of the file, which are separated by whitespace. The queue is built by the
+ 	 * ProgramLoader of the current thread, so equal symbols share one String and the nodes come
+ 	 * from the pool of queues given back with releaseQueue().
 	 * @param filename String that holds the name of the file to read from.
 	 * @return Node of the String type that points to the head of the queue of elements read from file.
 	 * @throws IOException Handles the exceptions related to a file not found.
 	 */
 	public static Node<String> fileToNodeQueue(String filename) throws IOException 
 	{
-		String value;
-		Scanner inFile;
-		// Pointers to the head and tail of our Queue
 		Node<String> head = null;
-		Node<String> tail = null;
 		
-		try
+		try (FileReader inFile = new FileReader(filename))
 		{
-			inFile = new Scanner(new File(filename));
-			Node<String> word;
-			
-			// while there is a token to read from file
-			while (inFile.hasNext())
-			{
-				value = inFile.next();	
-
-				// Enqueue word (new node created with a value to link to our Queue)
-				word = new Node<String>(value);
-				
-				if (head == null)
-					head = word;
-
-				if (tail != null)
-					tail.setNext(word);
-
-				word.setPrev(tail);
-				word.setNext(null);
-				tail = word;
-				// End of enqueueing.
-			}
-			
-			inFile.close();
+			head = ProgramLoader.forThread().load(inFile);
 		}
 		catch(IOException e)
 		{
@@ -72,12 +129,90 @@ public class Computer {
 	}
 	
 	
+	/**
+	 * Creates a queue of nodes with the symbols of a program given as a string, where the
+	 * symbols are separated by whitespace. 
+	 * @param program String with the text of the program.
+	 * @return Node of the String type that points to the head of the queue of symbols (null if
+	 * the program has no symbols).
+	 */
+	public static Node<String> stringToNodeQueue(String program)
+	{
+		try
+		{
+			return ProgramLoader.forThread().load(new StringReader(program));
+		}
+		catch (IOException e)   // a StringReader doesn't throw it
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	
+	/**
+	 * Gives the nodes of a program queue that won't be used anymore back to the pool of the
+	 * ProgramLoader of the current thread, so the next programs loaded reuse them.
+	 * @param input Node that is the head of the queue to release.
+	 */
+	public static void releaseQueue(Node<String> input)
+	{
+		ProgramLoader.forThread().release(input);
+	}
+	
+	
+	/**
+	 * Sets the listener that receives every change this computer makes while processing symbols.
+	 * @param trace TraceListener to notify, or null to stop tracing.
+	 */
+	public void setTraceListener(TraceListener trace)
+	{
+		this.trace = trace;
+	}
+	
+	
+	/**
+	 * Sets the profile that counts the sequences of instructions this computer executes from
+	 * compiled programs (see Program.fuse()).
+	 * @param profile Profile to add to, or null to stop profiling.
+	 */
+	public void setProfile(Profile profile)
+	{
+		this.profile = profile;
+	}
+	
+	
+	/**
+	 * Pushes a value onto the program stack, notifying the trace listener if there is one.
+	 * @param value Object to push.
+	 */
+	private void push(Object value)
+	{
+		progStack.push(value);
+		if (trace != null)
+			trace.pushed(value);
+	}
+	
+	
+	/**
+	 * Pops a value off the program stack, notifying the trace listener if there is one.
+	 * @return Object popped.
+	 */
+	private Object pop()
+	{
+		Object value = progStack.pop();
+		if (trace != null)
+			trace.popped(value);
+		return value;
+	}
+	
+	
 	/**
 	 * Takes an operand (of the Object class) and if such operand is an instance of Integer it will
 	 * cast it to an integer.  If it is not an integer, it will assume that the operand is variable name,
-	 * in which case it will obtain the value assigned to that variable and cast it to an integer.
+	 * in which case it will obtain the value assigned to that variable (in the symbol table, or
+	 * else in the imported variables) and cast it to an integer.
 	 * @param operand Object type value of the operand that we are trying to extract an integer from.
-	 * @return
+	 * @return Integer value of the operand, or null if it is a variable without a value.
 	 */
 	private Integer getOperand(Object operand)
 	{
@@ -86,42 +221,34 @@ public class Computer {
 		if (operand instanceof Integer)
 			number = (Integer)operand;
 		else
+		{
 			number = (Integer)symbols.get((String)operand);  
+			if (number == null && imports != null)
+				number = imports.get((String)operand);
+		}
 		
 		return number;
 	}
 	
 	
 	/**
-	 * Given 2 operands and one operator, this method executes a mathematical operation according 
-	 * to the three parameters received.
+	 * Given 2 operands and the code of an operator (see Operators), this method executes the
+	 * operation. A division by zero doesn't throw an exception: it stops the program with a
+	 * DIVISION_BY_ZERO error and returns 0.
 	 * @param operand1 int value of the first operand.
-	 * @param operand2 int value of the second operand.
-	 * @param operator String value, which is the symbol that dictates what math operation to execute.
+	 * @param operand2 int value of the second operand (ignored by unary operators).
+	 * @param operator int value with the code of the operator, looked up in Operators.
 	 * @return int value with the result of the operation on the two operands.
 	 */
-	private int operate(int operand1, int operand2, String operator)
+	private int operate(int operand1, int operand2, int operator)
 	{
-		int result = 0;
-		
-		switch(operator)
+		if (Operators.dividesByZero(operator, operand1, operand2))
 		{
-			case "+":
-				result = operand1 + operand2;
-			break;	
-			case "-":
-				result = operand1 - operand2;
-			break;	
-			case "*":
-				result = operand1 * operand2;
-			break;	
-			case "/":
-				result = operand1 / operand2;
-			break;
-
+			error = new ProgramError(ProgramError.DIVISION_BY_ZERO, position, Operators.symbol(operator));
+			return 0;
 		}
 		
-		return result;
+		return Operators.apply(operator, operand1, operand2);
 	}
 	
 	
@@ -136,37 +263,42 @@ public class Computer {
 		int result = 0, operand1 = 0, operand2 = 0;
 		String variable = "";
 		char firstChar = symbol.charAt(0);
+		int operator;
+		
+		if (ConstantPool.isLiteral(symbol))   // if it is an integer (a '-' followed by digits too)
+		{
+			push(constants.get(symbol)); // pushes the Integer value of symbol, parsed once
+			return;
+		}
 		
 		switch (firstChar)
-		{	// if it is an integer
-			case '0': case '1': case '2': case '3': case '4':
-			case '5': case '6': case '7': case '8': case '9':			
-				progStack.push(Integer.parseInt(symbol)); // pushes the Integer value of symbol
-			break;
-			
-			// if it is an operator	
-			case '+': case '-': case '*': case '/':
-				operand1 = getOperand(progStack.pop());
-				operand2 = getOperand(progStack.pop());
-				result = operate(operand1,operand2,symbol);
-				progStack.push(result);
-			break;
-				
-			// if it is an assignment symbol
+		{	// if it is an assignment symbol
 			case '=':
-				operand1 = getOperand(progStack.pop());
-				variable = progStack.pop().toString();
+				operand1 = getOperand(pop());
+				variable = pop().toString();
 				symbols.put(variable,operand1);
+				if (trace != null)
+					trace.stored(variable, operand1);
 			break;
 			
-			// if it is an identifier
+			// if it is an operator, print or an identifier
 			default:  
 			{
-				if (symbol.equals("print"))
-					System.out.println(progStack.pop());
+				operator = Operators.lookup(symbol);
+				
+				if (operator >= 0)
+				{
+					operand1 = getOperand(pop());
+					if (Operators.arity(operator) == 2)
+						operand2 = getOperand(pop());
+					result = operate(operand1,operand2,operator);
+					push(result);
+				}
+				else if (symbol.equals("print"))
+					out.println(pop());
 
 				else
-					progStack.push(symbol);
+					push(symbol);
 			}	
 			
 		
@@ -179,7 +311,9 @@ public class Computer {
 	/**
 	 * Given an input queue of symbols, it processes the number of symbols specified (numSymbols)
 	 * and updates the progStack and symbols variables appropriately to reflect the state of the 
-	 * "computer". Returns the remaining queue items.
+	 * "computer". Returns the remaining queue items. The program is expected to have been checked by
+	 * a ProgramValidator (see run()); the only error detected here is a division by zero, which
+	 * stops the program (getError() returns it) and makes this method return null.
 	 * @param input Node that holds string values. This node is the head of the queue to be processed.
 	 * @param numSymbols int value of number of symbols to process.
 	 * @return Node of String values, which is the top of the stack.
@@ -193,21 +327,321 @@ public class Computer {
 		while(i<numSymbols && current != null)
 		{
 			symbol = current.getValue();
+			if (trace != null)
+				trace.step(position, symbol);
 			analyze(symbol);
+			if (error != null)   // the program stopped with a run time error
+			{
+				if (trace != null)
+					trace.stopped(error);
+				return null;
+			}
 			
 			i++;
+			position++;
 			current = current.getNext();
 		}
 		
 		return current;
 	}
 	
+	/**
+	 * Returns the integer value of an operand of a compiled program. If the operand is a variable
+	 * without a value, it stops the program with an UNDEFINED_VARIABLE error and returns 0.
+	 * @param operand Object type value of the operand (Integer value or String variable).
+	 * @return int value of the operand.
+	 */
+	private int valueOf(Object operand)
+	{
+		Integer number = getOperand(operand);
+		
+		if (number == null)
+		{
+			error = new ProgramError(ProgramError.UNDEFINED_VARIABLE, position, operand.toString());
+			return 0;
+		}
+		
+		return number;
+	}
+	
+	
+	/**
+	 * Assigns a value to a variable, notifying the trace listener if there is one.
+	 * @param variable String with the name of the variable.
+	 * @param value int value to assign.
+	 */
+	private void store(String variable, int value)
+	{
+		symbols.put(variable, value);
+		if (trace != null)
+			trace.stored(variable, value);
+	}
+	
+	
+	/**
+	 * Executes up to count instructions of a compiled program, starting at instruction pc, and
+	 * updates the progStack and symbols variables the same way process() does for a queue. Returns
+	 * the index of the next instruction, so the program can be resumed from there. If the program
+	 * stops with an error (getError() returns it), the length of the program is returned.
+	 * A superinstruction (see Program.fuse()) counts as one instruction, and moves the cursor past
+	 * every instruction it replaces.
+	 * @param program Program compiled with Program.compile() (without errors).
+	 * @param pc int with the index of the first instruction to execute.
+	 * @param count int with the maximum number of instructions to execute.
+	 * @return int with the index of the next instruction (the length of the program once it finished).
+	 */
+	public int execute(Program program, int pc, int count)
+	{
+		int[] opcodes = program.opcodes;
+		Object[] operands = program.operands;
+		int[] arguments = program.arguments;
+		int length = program.length;
+		int operand1, operand2;
+		
+		for (int n = 0; n < count && pc < length; n++)
+		{
+			int instruction = pc;   // instruction that reports an error
+			if (trace != null)
+			{
+				trace.step(program.tokens[pc], program.text[pc]);
+				trace.instruction(pc, opcodes[pc], progStack.size());
+			}
+			if (profile != null)
+				profile.record(program.shape(pc));
+			
+			switch (opcodes[pc])
+			{
+				case Program.PUSH:
+					push(operands[pc]);
+					pc++;
+				break;
+				
+				case Program.OPERATE:
+					operand1 = valueOf(pop());
+					operand2 = valueOf(pop());
+					if (error == null)   // an undefined operand already stopped the program
+						push(operate(operand1, operand2, arguments[pc]));
+					pc++;
+				break;
+				
+				case Program.OPERATE_UNARY:
+					operand1 = valueOf(pop());
+					if (error == null)
+						push(operate(operand1, 0, arguments[pc]));
+					pc++;
+				break;
+				
+				case Program.ASSIGN:
+					operand1 = valueOf(pop());
+					Object variable = pop();
+					if (error == null)   // an undefined operand already stopped the program
+					{
+						if (variable instanceof String)
+							store((String)variable, operand1);
+						else
+							error = new ProgramError(ProgramError.INVALID_ASSIGNMENT, position, "=");
+					}
+					pc++;
+				break;
+				
+				case Program.PRINT:
+					out.println(pop());
+					pc++;
+				break;
+				
+				case Program.JUMP:
+					pc = arguments[pc];
+				break;
+				
+				case Program.JUMP_IF_ZERO:
+					pc = valueOf(pop()) == 0 ? arguments[pc] : pc + 1;
+				break;
+				
+				case Program.ASSIGN_OPERATION:   // t a b op =
+					instruction = pc + 3;
+					operand1 = valueOf(operands[pc + 2]);
+					operand2 = valueOf(operands[pc + 1]);
+					if (error == null)   // an undefined operand already stopped the program
+						operand1 = operate(operand1, operand2, arguments[pc + 3]);
+					if (error == null)
+						store((String)operands[pc], operand1);
+					else   // leave the stack as "t a b op" leaves it when it stops
+					{
+						push(operands[pc]);
+						if (error.getCode() == ProgramError.DIVISION_BY_ZERO)
+							push(operand1);
+					}
+					position += 4;
+					pc += 5;
+				break;
+				
+				case Program.PUSH_OPERATION:     // a b op
+					instruction = pc + 2;
+					operand1 = valueOf(operands[pc + 1]);
+					operand2 = valueOf(operands[pc]);
+					if (error == null)
+						push(operate(operand1, operand2, arguments[pc + 2]));
+					position += 2;
+					pc += 3;
+				break;
+				
+				case Program.OPERATE_WITH:       // a op
+					instruction = pc + 1;
+					operand1 = valueOf(operands[pc]);
+					operand2 = valueOf(pop());
+					if (error == null)
+						push(operate(operand1, operand2, arguments[pc + 1]));
+					position += 1;
+					pc += 2;
+				break;
+				
+				case Program.ASSIGN_VALUE:       // t a =
+					instruction = pc + 2;
+					operand1 = valueOf(operands[pc + 1]);
+					if (error == null)
+						store((String)operands[pc], operand1);
+					position += 2;
+					pc += 3;
+				break;
+			}
+			
+			position++;
+			if (error != null)   // the program stopped, report the symbol of the instruction
+			{
+				error = new ProgramError(error.getCode(), program.tokens[instruction], program.text[instruction]);
+				if (trace != null)
+					trace.stopped(error);
+				return length;
+			}
+		}
+		
+		return pc;
+	}
+	
+	
+	/**
+	 * Runs a compiled program to the end, after reserving in the program stack the capacity it needs.
+	 * @param program Program compiled with Program.compile().
+	 * @return ProgramError found when compiling or at run time, or null if the program ran without errors.
+	 */
+	public ProgramError run(Program program)
+	{
+		error = program.getError();
+		
+		if (error == null)
+		{
+			progStack.ensureCapacity(progStack.size() + program.getMaxDepth());
+			
+			int pc = 0;
+			while (pc < program.length())
+				pc = execute(program, pc, 1000);
+		}
+		
+		return error;
+	}
+	
+	
+	/**
+	 * Checks the given program with a ProgramValidator, starting from the current program stack
+	 * and cursor, and if it is valid reserves in the program stack the exact capacity the program
+	 * needs, so the stack never grows while the program runs.
+	 * @param input Node that holds string values. This node is the head of the queue to be processed.
+	 * @return ProgramError found by the validation, or null if the program is valid.
+	 */
+	private ProgramError prepare(Node<String> input)
+	{
+		ProgramValidator validator = new ProgramValidator(symbols, imports);
+		ProgramError found = validator.validate(input, progStack, position);
+		
+		if (found == null)
+			progStack.ensureCapacity(validator.getMaxDepth());
+		
+		return found;
+	}
+	
+	
+	/**
+	 * Checks the given program with a ProgramValidator and, if it is valid, processes it to the end.
+	 * @param input Node that holds string values. This node is the head of the queue to be processed.
+	 * @return ProgramError found by the validation or at run time, or null if the program ran without errors.
+	 */
+	public ProgramError run(Node<String> input)
+	{
+		error = prepare(input);
+		
+		while (input != null && error == null)
+			input = process(input, 1000);
+		
+		return error;
+	}
+	
+	
+	/**
+	 * Evaluates a whole sub-program inside a new frame of the symbol table, so the variables it
+	 * assigns are only visible while it runs. The bindings of the caller are restored when it
+	 * finishes, without copying the table. Values it leaves on the program stack are kept.
+	 * The sub-program is checked by a ProgramValidator first, like run() does, and isn't run if
+	 * it isn't valid.
+	 * @param input Node that holds string values. This node is the head of the sub-program queue.
+	 * @return ProgramError found by the validation or at run time, or null if the sub-program ran
+	 * without errors.
+	 */
+	public ProgramError evaluateScoped(Node<String> input)
+	{
+		symbols.pushFrame();
+		
+		try
+		{
+			error = prepare(input);
+			while (input != null && error == null)
+				input = process(input, 10);
+		}
+		finally   // the frame is popped even if the sub-program throws
+		{
+			symbols.popFrame();
+		}
+		return error;
+	}
+	
+	
 	/**
 	 * Tests the class Computer with calls to its methods.	
 	 * @throws IOException Exception handling in case the file used in this Method is not found.
 	 */
 	public void testMain() throws IOException
 	{
+		symbols.put("x", 1);
+		ProgramError found = evaluateScoped(stringToNodeQueue("x y 1 + ="));
+		if (found != null && found.getCode() == ProgramError.UNDEFINED_VARIABLE && symbols.get("x") == 1
+				&& symbols.getFrameDepth() == 0)
+			System.out.println("Yay 1");
+		
+		if (evaluateScoped(stringToNodeQueue("y 2 = x y x + =")) == null && symbols.get("x") == 1
+				&& symbols.get("y") == null && progStack.isEmpty())
+			System.out.println("Yay 2");
+		
+		setTraceListener(new TraceListener()   // a listener that fails in the middle of the sub-program
+		{
+			public void step(long position, String symbol) {}
+			public void pushed(Object value) {}
+			public void popped(Object value) {}
+			public void stored(String variable, int value)
+			{
+				throw new IllegalStateException("listener failed");
+			}
+		});
+		try
+		{
+			evaluateScoped(stringToNodeQueue("z 3 ="));
+		}
+		catch (IllegalStateException e)
+		{
+			if (symbols.getFrameDepth() == 0 && symbols.get("z") == null)
+				System.out.println("Yay 3");
+		}
+		setTraceListener(null);
+		reset();
+		
 
 //		String fileName = "c:/users/sergio/desktop/sample1.txt";
 		String fileName = "/home/sergio/eclipse-workspace/CS310-project2/src/sample2.txt";
@@ -243,6 +677,48 @@ public class Computer {
 		
 	}
 	
+	/**
+	 * Runs the program in the given file, saving a checkpoint of the program stack, the symbol table
+	 * and the program cursor (index of the next instruction) every interval instructions. If a
+	 * checkpoint file already exists, the state of the computer is restored from it and the
+	 * execution resumes at the saved cursor, so the instructions before it are not executed again.
+	 * The checkpoint is deleted once the program finishes. Output printed after the last checkpoint
+	 * is printed again on resume.
+	 * @param filename String that holds the name of the file to read the program from.
+	 * @param checkpointFile String that holds the name of the checkpoint file.
+	 * @param interval int value with the number of instructions to execute between checkpoints.
+	 * @throws IOException Handles the exceptions related to reading or writing the checkpoint.
+	 */
+	public void runProgram(String filename, String checkpointFile, int interval) throws IOException
+	{
+		Node<String> input = fileToNodeQueue(filename);
+		Program program = Program.compile(input);
+		releaseQueue(input);
+		
+		error = program.getError();
+		if (error != null)
+		{
+			System.out.println("Error: " + error);
+			return;
+		}
+		
+		Checkpoint checkpoint = new Checkpoint(checkpointFile);
+		int pc = (int)Math.max(0, checkpoint.restore(this, program));   // resume at the saved cursor, if any
+		progStack.ensureCapacity(program.getMaxDepth());
+		
+		while (pc < program.length())
+		{
+			pc = execute(program, pc, interval);
+			
+			if (pc < program.length())
+				checkpoint.save(this, program, pc);
+		}
+		
+		if (error != null)
+			System.out.println("Error: " + error);
+		checkpoint.delete();
+	}
+	
 	//--------------------DON'T EDIT BELOW THIS LINE--------------------
 	//----------------------EXCEPT TO ADD JAVADOCS----------------------
 	
@@ -263,13 +739,16 @@ public class Computer {
 			return;
 		}
 		
-		if(args.length != 2 || !(args[1].equals("false") || args[1].equals("true"))) {
-			System.out.println("Usage: java Computer [filename] [true|false]");
+		if((args.length != 2 && args.length != 4) || !(args[1].equals("false") || args[1].equals("true"))) {
+			System.out.println("Usage: java Computer [filename] [true|false] [checkpointFile interval]");
 			System.exit(0);
 		}
 		
 		try {
-			(new Computer()).runProgram(args[0], args[1].equals("true"));
+			if(args.length == 4)
+				(new Computer()).runProgram(args[0], args[2], Integer.parseInt(args[3]));
+			else
+				(new Computer()).runProgram(args[0], args[1].equals("true"));
 		}
 		catch(IOException e) {
 			System.out.println(e.toString());
@@ -277,34 +756,58 @@ public class Computer {
 		}
 	}
 	
-	//provided, don't change this
+	/**
+	 * Runs the program in the given file, after compiling it into a Program (errors are printed
+	 * instead of running the program). Without debug, the program is executed by a Scheduler in
+	 * quanta sized to its latency target. With debug, the program is executed one instruction at
+	 * a time, printing after each step only what the step changed (the values pushed and popped
+	 * and the variables assigned) and the next instruction.
+	 * @param filename String that holds the name of the file to read the program from.
+	 * @param debug Boolean value with whether or not to step through the program.
+	 * @throws IOException Handles the exceptions related to a file not found.
+	 */
 	public void runProgram(String filename, boolean debug) throws IOException {
 		Node<String> input = fileToNodeQueue(filename);
 		System.out.println("\nProgram: " + Node.listToString(input));
+		Program program = Program.compile(input);
+		releaseQueue(input);
+		
+		error = program.getError();
+		if(error != null) {
+			System.out.println("Error: " + error);
+			return;
+		}
+		progStack.ensureCapacity(program.getMaxDepth());
 		
 		if(!debug) {
-			while(input != null) {
-				input = process(input, 10);
-			}
+			Scheduler scheduler = new Scheduler(Scheduler.DEFAULT_TARGET_NANOS);
+			scheduler.submit(this, program);
+			scheduler.run();
 		}
 		else {
 			Scanner s = new Scanner(System.in);
-			for(int i = 1; input != null; i++) {
+			DeltaTrace delta = new DeltaTrace();
+			int pc = 0;
+			
+			setTraceListener(delta);
+			for(int i = 1; pc < program.length(); i++) {
 				System.out.println("\n######### Step " + i + " ###############\n");
 				System.out.println("----------Step Output----------");
-				input = process(input, 1);
-				System.out.println("----------Symbol Table---------");
-				System.out.println(symbols);
-				System.out.println("----------Program Stack--------");
-				System.out.println(progStack);
-				if(input != null) {
+				pc = execute(program, pc, 1);
+				System.out.println("----------Changes--------------");
+				System.out.println(delta.flush());
+				if(pc < program.length()) {
 					System.out.println("----------Program Remaining----");
-					System.out.println(Node.listToString(input));
+					System.out.println("next: " + program.getText(pc) + " (symbol " + program.getToken(pc) + ")");
 				}
 				System.out.println("\nPress Enter to Continue");
 				s.nextLine();
 			}
+			setTraceListener(null);
 			s.close();
 		}
+		
+		if(error != null)
+			System.out.println("Error: " + error);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+/**
+ * This class holds the integer literals of a program, so each distinct literal is parsed and
+ * boxed into an Integer once, however many times it appears or runs: get() returns the same
+ * Integer for every occurrence of a literal. Program.compile uses a new pool for each program
+ * it compiles, and a Computer keeps one for the symbols it processes from queues.
+ * The literals are parsed by hand from the characters of the symbol, without Integer.parseInt,
+ * and a literal can be negative: a '-' followed by digits is a number, while a '-' alone is
+ * still the subtraction operator.
+ *
+ * @author Sergio Delgado
+ */
+public class ConstantPool
+{
+	private static final int MAX_CONSTANTS = 1 << 12;   // distinct literals kept before the pool is emptied
+
+	private String[] literals;   // open addressing table of the literals seen
+	private Integer[] values;    // value of each literal of the table
+	private int size;            // number of literals in the table
+
+
+	/**
+	 * Constructor that creates an empty pool.
+	 */
+	public ConstantPool()
+	{
+		literals = new String[64];
+		values = new Integer[64];
+	}
+
+
+	/**
+	 * Returns whether or not a symbol is an integer literal: a digit, or a '-' followed by a digit.
+	 * The rest of the symbol is checked by isValid().
+	 * @param symbol String with the symbol (not empty).
+	 * @return Boolean value, true if the symbol has to be read as a number.
+	 */
+	public static boolean isLiteral(String symbol)
+	{
+		char first = symbol.charAt(0);
+		return (first >= '0' && first <= '9') || (first == '-' && symbol.length() > 1
+				&& symbol.charAt(1) >= '0' && symbol.charAt(1) <= '9');
+	}
+
+
+	/**
+	 * Returns whether or not a literal has only digits (after its sign) and fits in an int.
+	 * @param literal CharSequence with the literal.
+	 * @return Boolean value, true if parse() can read it.
+	 */
+	public static boolean isValid(CharSequence literal)
+	{
+		int start = literal.length() > 0 && literal.charAt(0) == '-' ? 1 : 0;
+		if (start == literal.length())
+			return false;
+
+		int limit = start == 1 ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int result = 0;   // accumulated as a negative number, which has room for Integer.MIN_VALUE
+
+		for (int i = start; i < literal.length(); i++)
+		{
+			int digit = literal.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || result < (limit + digit) / 10)
+				return false;
+			result = result * 10 - digit;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Reads the value of an integer literal from its characters, without allocating anything.
+	 * @param literal CharSequence with the literal (optional '-' followed by digits).
+	 * @return int value of the literal.
+	 * @throws NumberFormatException If the literal isn't valid (see isValid()).
+	 */
+	public static int parse(CharSequence literal)
+	{
+		if (!isValid(literal))
+			throw new NumberFormatException("For input string: \"" + literal + "\"");
+
+		boolean negative = literal.charAt(0) == '-';
+		int result = 0;
+		for (int i = negative ? 1 : 0; i < literal.length(); i++)
+			result = result * 10 - (literal.charAt(i) - '0');
+
+		return negative ? result : -result;
+	}
+
+
+	/**
+	 * Returns the Integer of a literal, parsing and boxing it only the first time it is asked for.
+	 * Uses linear probing over a table that doubles when half full.
+	 * @param literal String with the literal.
+	 * @return Integer with the value of the literal (the same object for every call with it).
+	 * @throws NumberFormatException If the literal isn't valid (see isValid()).
+	 */
+	public Integer get(String literal)
+	{
+		int mask = literals.length - 1;
+		int index = literal.hashCode() & mask;
+
+		while (literals[index] != null)
+		{
+			if (literals[index] == literal || literals[index].equals(literal))
+				return values[index];
+			index = (index + 1) & mask;
+		}
+
+		Integer value = Integer.valueOf(parse(literal));
+
+		if (size >= MAX_CONSTANTS)   // too many different literals, start again
+		{
+			clear();
+			return value;
+		}
+
+		literals[index] = literal;
+		values[index] = value;
+		size++;
+
+		if (size * 2 > literals.length)
+			grow();
+
+		return value;
+	}
+
+
+	/**
+	 * Doubles the table of literals, placing again every literal.
+	 */
+	private void grow()
+	{
+		String[] oldLiterals = literals;
+		Integer[] oldValues = values;
+		literals = new String[oldLiterals.length * 2];
+		values = new Integer[oldLiterals.length * 2];
+		int mask = literals.length - 1;
+
+		for (int i = 0; i < oldLiterals.length; i++)
+		{
+			if (oldLiterals[i] != null)
+			{
+				int index = oldLiterals[i].hashCode() & mask;
+				while (literals[index] != null)
+					index = (index + 1) & mask;
+				literals[index] = oldLiterals[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of distinct literals in the pool.
+	 * @return int with the number of literals.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+
+	/**
+	 * Empties the pool, keeping its table.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < literals.length; i++)
+		{
+			literals[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+
+	/**
+	 * Tests the class ConstantPool with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		if (isLiteral("42") && isLiteral("-7") && !isLiteral("-") && !isLiteral("x1") && !isLiteral("-x"))
+			System.out.println("Yay 1");
+
+		if (parse("0") == 0 && parse("310") == 310 && parse("-45") == -45
+				&& parse("2147483647") == Integer.MAX_VALUE && parse("-2147483648") == Integer.MIN_VALUE)
+			System.out.println("Yay 2");
+
+		if (!isValid("2147483648") && !isValid("-2147483649") && !isValid("12a") && !isValid("-") && isValid("007"))
+			System.out.println("Yay 3");
+
+		ConstantPool pool = new ConstantPool();
+		Integer first = pool.get("100000");
+		if (first == pool.get(new String("100000")) && first.intValue() == 100000 && pool.size() == 1)
+			System.out.println("Yay 4");
+
+		for (int i = 0; i < 1000; i++)
+			pool.get(Integer.toString(i - 500));
+		if (pool.size() == 1001 && pool.get("-500").intValue() == -500 && pool.get("499").intValue() == 499)
+			System.out.println("Yay 5");
+
+		try
+		{
+			pool.get("99999999999");
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println("Yay 6");
+		}
+	}
+}
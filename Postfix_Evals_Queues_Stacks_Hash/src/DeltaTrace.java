@@ -0,0 +1,139 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class collects, as text, the changes made to a Computer while it processes a step of a
+ * program: the symbol processed, the values pushed and popped and the variables assigned.
+ * It is used by the debug mode of Computer.runProgram, so the cost of tracing a step depends
+ * on what the step changed and not on the size of the stack, the table or the program.
+ *
+ * @author Sergio Delgado
+ */
+public class DeltaTrace implements TraceListener
+{
+	private StringBuilder changes;   // changes collected since the last call to flush()
+
+	/**
+	 * Constructor that starts with no changes collected.
+	 */
+	public DeltaTrace()
+	{
+		changes = new StringBuilder();
+	}
+
+	/**
+	 * Records the symbol being processed.
+	 * @param position long value with the offset of the symbol in the program.
+	 * @param symbol String value of the symbol.
+	 */
+	public void step(long position, String symbol)
+	{
+		changes.append("symbol [").append(position).append("]: ").append(symbol).append('\n');
+	}
+
+	/**
+	 * Records a value pushed onto the program stack.
+	 * @param value Object pushed.
+	 */
+	public void pushed(Object value)
+	{
+		changes.append("push ").append(value).append('\n');
+	}
+
+	/**
+	 * Records a value popped off the program stack.
+	 * @param value Object popped.
+	 */
+	public void popped(Object value)
+	{
+		changes.append("pop ").append(value).append('\n');
+	}
+
+	/**
+	 * Records an assignment to a variable.
+	 * @param variable String with the name of the variable.
+	 * @param value int value assigned.
+	 */
+	public void stored(String variable, int value)
+	{
+		changes.append(variable).append(" = ").append(value).append('\n');
+	}
+
+	/**
+	 * Returns the changes collected since the last call and starts collecting again.
+	 * @return String with one change per line.
+	 */
+	public String flush()
+	{
+		String result = changes.toString().trim();
+		changes.setLength(0);
+		return result;
+	}
+
+	/**
+	 * Tests the class DeltaTrace with calls to its methods.
+	 * @param args Not used.
+	 * @throws IOException Handles the exceptions related to the program file.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String text = "x 2 = y x 3 + = y print";
+		String[] expected = {
+			"symbol [0]: x\npush x",
+			"symbol [1]: 2\npush 2",
+			"symbol [2]: =\npop 2\npop x\nx = 2",
+			"symbol [3]: y\npush y",
+			"symbol [4]: x\npush x",
+			"symbol [5]: 3\npush 3",
+			"symbol [6]: +\npop 3\npop x\npush 5",
+			"symbol [7]: =\npop 5\npop y\ny = 5",
+			"symbol [8]: y\npush y",
+			"symbol [9]: print\npop y"};
+
+		Program program = Program.compile(Computer.stringToNodeQueue(text));
+		Computer computer = new Computer();
+		computer.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		DeltaTrace delta = new DeltaTrace();
+		computer.setTraceListener(delta);
+		boolean same = true;
+		int pc = 0;
+		for (int step = 0; pc < program.length(); step++)
+		{
+			pc = computer.execute(program, pc, 1);
+			same = same && step < expected.length && delta.flush().equals(expected[step]);
+		}
+		if (same && delta.flush().isEmpty())
+			System.out.println("Yay 1");   // one step at a time, only what it changed
+
+		Path file = Files.createTempFile("program", ".txt");
+		Files.write(file, text.getBytes());
+		InputStream stdin = System.in;
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		try
+		{
+			System.setIn(new ByteArrayInputStream("\n".repeat(expected.length).getBytes()));   // Enter after every step
+			System.setOut(new PrintStream(captured, true));
+			(new Computer()).runProgram(file.toString(), true);
+		}
+		finally
+		{
+			System.setIn(stdin);
+			System.setOut(stdout);
+			Files.delete(file);
+		}
+
+		String[] steps = captured.toString().replace(System.lineSeparator(), "\n").split("----------Changes--------------\n");
+		same = steps.length == expected.length + 1;
+		for (int step = 1; same && step < steps.length; step++)
+			same = steps[step].startsWith(expected[step - 1] + "\n");
+		if (same && steps[1].contains("next: 2 (symbol 1)") && steps[steps.length - 1].contains("Press Enter"))
+			System.out.println("Yay 2");   // the same changes in the debug mode of Computer.runProgram
+	}
+}
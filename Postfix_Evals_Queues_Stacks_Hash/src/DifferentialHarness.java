@@ -0,0 +1,691 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class checks that every way of running a program gives the same result as the reference,
+ * which is Computer.process() on the queue of symbols, and that none of them got slower. It
+ * generates random programs and runs each one on every evaluator:
+ * <pre>
+ * reference     Computer.process() on the queue
+ * validated     Computer.run() on the queue (ProgramValidator first)
+ * compiled      Computer.run() on the compiled Program
+ * fused         the compiled Program with the superinstructions of a profile of the programs
+ * scheduled     the compiled Program time-sliced by a Scheduler
+ * checkpointed  the compiled Program run in slices of a few instructions, saving a Checkpoint
+ *               after each slice and restoring it on a reset computer
+ * </pre>
+ * and compares what they printed, the error that stopped them (if any), the final variables and
+ * the final program stack (where an error left it). Programs with loops can't run from a queue, so
+ * they are only run by the compiled evaluators and compared with the compiled one.
+ * Some programs end with a statement that divides by zero or reads a variable that was never
+ * assigned, so the error paths are compared too. The reference can't run a program that reads an
+ * undefined variable (only a validated program can), and the evaluators that validate the queue
+ * don't run such a program at all, so for those programs the validated evaluator is the reference
+ * and only the error is compared with it, while the compiled evaluators, which all stop at the
+ * same instruction, are also compared with the compiled one in full.
+ * The final variables of every program are also loaded into every symbol table implementation
+ * (SymbolTable, OffHeapSymbolTable replaying every assignment, SymbolTable.putAll, a parallel
+ * rehash and a MappedSymbolTable), which must find the same values.
+ * Then the throughput of each evaluator (instructions per second) and of each table (lookups per
+ * second) is measured and compared with the results file of the previous run. The run fails (exit
+ * status 1) if any result differs or if any throughput fell by more than the tolerance; otherwise
+ * the results file is replaced with the new measurements.
+ * Usage: java DifferentialHarness [programs] [seed] [resultsFile] [tolerance]
+ *
+ * @author Sergio Delgado
+ */
+public class DifferentialHarness
+{
+	private static final String[] EVALUATORS = {"reference", "validated", "compiled", "fused", "scheduled", "checkpointed"};
+	private static final String[] TABLES = {"SymbolTable", "OffHeapSymbolTable", "putAll", "parallelRehash", "MappedSymbolTable"};
+	private static final int VALIDATED = 1;            // first evaluator that can run undefined variables
+	private static final int COMPILED = 2;             // first evaluator that can run loops
+	private static final int VARIABLES = 8;            // variables v0 to v7 used by the programs
+	private static final int CHECKPOINT_INTERVAL = 5;  // instructions between checkpoints
+	private static final int ROUNDS = 5;               // timed runs of each variant (the best one is kept)
+	private static final long ROUND_NANOS = 200000000; // minimum time of a run, repeating the programs
+	private static final String HEADER = "# postfix differential results 3";
+
+	private Program[] compiled;          // compiled program of each generated program
+	private Program[] fused;             // compiled program with superinstructions
+	private Node<String>[] queues;       // queue of each program (null for programs with loops)
+	private int[] firsts;                // first evaluator that can run each program (its reference)
+	private long[] instructions;         // instructions each program executes
+	private Object[][] tables;           // final variables of each program in each table implementation
+	private String[][] names;            // names of the final variables of each program
+	private Path checkpointFile;
+	private int failures;                // results that differ from the reference
+	private PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+
+	/**
+	 * Returns a random expression in postfix, whose leaves are literals and variables already assigned.
+	 * @param random Random that chooses the expression.
+	 * @param assigned Array of Booleans with whether or not each variable has a value.
+	 * @param depth int with the maximum depth of operators.
+	 * @return String with the symbols of the expression.
+	 */
+	private static String expression(Random random, boolean[] assigned, int depth)
+	{
+		if (depth == 0 || random.nextInt(3) == 0)
+		{
+			int variable = random.nextInt(VARIABLES);
+			if (assigned[variable] && random.nextBoolean())
+				return "v" + variable;
+			return Integer.toString(random.nextInt(8) == 0 ? random.nextInt() : random.nextInt(101) - 50);
+		}
+
+		int operator = random.nextInt(Operators.count());
+		if (Operators.arity(operator) == 1)
+			return expression(random, assigned, depth - 1) + " " + Operators.symbol(operator);
+
+		return expression(random, assigned, depth - 1) + " " + expression(random, assigned, depth - 1)
+				+ " " + Operators.symbol(operator);
+	}
+
+
+	/**
+	 * Returns random statements: assignments of expressions, updates of a variable with a literal
+	 * (the shape of the most common superinstruction) and prints.
+	 * @param random Random that chooses the statements.
+	 * @param assigned Array of Booleans with whether or not each variable has a value (updated).
+	 * @param count int with the number of statements.
+	 * @return String with the symbols of the statements.
+	 */
+	private static String statements(Random random, boolean[] assigned, int count)
+	{
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < count; i++)
+		{
+			int kind = random.nextInt(10);
+			int target = random.nextInt(VARIABLES);
+
+			if (kind < 2 && assigned[target])   // v v 1 + =
+				text.append("v" + target + " v" + target + " " + (random.nextInt(9) + 1) + " "
+						+ Operators.symbol(random.nextInt(3)) + " = ");
+			else if (kind < 4)
+				text.append(expression(random, assigned, 3) + " print ");
+			else
+			{
+				text.append("v" + target + " " + expression(random, assigned, 3) + " = ");
+				assigned[target] = true;
+			}
+		}
+
+		return text.toString();
+	}
+
+
+	/**
+	 * Returns an assignment to the variable f that stops the program with the given error: an
+	 * assignment of the variable u, which is never assigned, or an operation of u with a literal or
+	 * a variable, or a division (or remainder) of one of them by 0. The other operand is a single
+	 * symbol, so the statement can't stop before its operator.
+	 * @param random Random that chooses the statement.
+	 * @param assigned Array of Booleans with whether or not each variable has a value.
+	 * @param code int with the error code (ProgramError.UNDEFINED_VARIABLE or DIVISION_BY_ZERO).
+	 * @return String with the symbols of the statement.
+	 */
+	private static String fault(Random random, boolean[] assigned, int code)
+	{
+		String operation;
+		if (code == ProgramError.UNDEFINED_VARIABLE && random.nextInt(3) == 0)
+			operation = "u";
+		else if (code == ProgramError.UNDEFINED_VARIABLE)
+		{
+			int operator = random.nextInt(Operators.count());
+			while (Operators.arity(operator) != 2)
+				operator = random.nextInt(Operators.count());
+
+			String operand = expression(random, assigned, 0);
+			operation = (random.nextBoolean() ? "u " + operand : operand + " u") + " " + Operators.symbol(operator);
+		}
+		else   // the divisor is the element under the top
+			operation = "0 " + expression(random, assigned, 0) + " "
+					+ Operators.symbol(random.nextBoolean() ? Operators.DIVIDE : Operators.REMAINDER);
+
+		return "f " + operation + " = ";
+	}
+
+
+	/**
+	 * Returns a random program. A program with a loop runs a block of statements from 1 to 20
+	 * times, counting down a variable n. A program with a fault has a statement that stops it with
+	 * that error before its last statements.
+	 * @param random Random that chooses the program.
+	 * @param loop Boolean value with whether or not the program has a loop.
+	 * @param fault int with the error code of the faulty statement, or 0 for none.
+	 * @return String with the text of the program.
+	 */
+	private static String generate(Random random, boolean loop, int fault)
+	{
+		boolean[] assigned = new boolean[VARIABLES];
+		String program = statements(random, assigned, 1 + random.nextInt(8));
+
+		if (loop)
+			program += "n " + (1 + random.nextInt(20)) + " = top label " + statements(random, assigned, 1 + random.nextInt(5))
+					+ "n 1 n - = n end jz top jmp end label ";
+
+		if (fault != 0)
+			program += fault(random, assigned, fault);
+
+		return program + statements(random, assigned, random.nextInt(4));
+	}
+
+
+	/**
+	 * Runs a program on a computer with one of the evaluators.
+	 * @param evaluator int with the index of the evaluator in EVALUATORS.
+	 * @param program int with the index of the program.
+	 * @param computer Computer (reset) that runs the program.
+	 * @return ProgramError that stopped the program, or null.
+	 */
+	private ProgramError run(int evaluator, int program, Computer computer)
+	{
+		switch (evaluator)
+		{
+			case 0:
+				Node<String> input = queues[program];
+				while (input != null)
+					input = computer.process(input, 1000);
+				return computer.getError();
+
+			case 1:
+				return computer.run(queues[program]);
+
+			case 2:
+				return computer.run(compiled[program]);
+
+			case 3:
+				return computer.run(fused[program]);
+
+			case 4:
+				Scheduler scheduler = new Scheduler(Scheduler.DEFAULT_TARGET_NANOS);
+				scheduler.submit(computer, compiled[program]);
+				scheduler.run();
+				return computer.getError();
+
+			default:
+				try
+				{
+					Checkpoint checkpoint = new Checkpoint(checkpointFile.toString());
+					int pc = 0;
+					while (pc < compiled[program].length() && computer.getError() == null)
+					{
+						pc = computer.execute(compiled[program], pc, CHECKPOINT_INTERVAL);
+						if (computer.getError() == null)
+						{
+							checkpoint.save(computer, compiled[program], pc);
+							computer.reset();
+							pc = (int)checkpoint.restore(computer, compiled[program]);
+						}
+					}
+					checkpoint.delete();
+					return computer.getError();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+		}
+	}
+
+
+	/**
+	 * Returns the variables of a symbol table as text, sorted by name.
+	 * @param symbols SymbolTable with the variables.
+	 * @return String with name:value pairs separated by spaces.
+	 */
+	private static String variables(SymbolTable<Integer> symbols)
+	{
+		TableEntry<String,Integer>[] entries = symbols.entries();
+		String[] pairs = new String[entries.length];
+		for (int i = 0; i < entries.length; i++)
+			pairs[i] = entries[i].toString();
+		Arrays.sort(pairs);
+		return String.join(" ", pairs);
+	}
+
+
+	/**
+	 * Runs a program with an evaluator and describes everything it left: output, error, variables
+	 * and program stack.
+	 * @param evaluator int with the index of the evaluator.
+	 * @param program int with the index of the program.
+	 * @param listener TraceListener that receives the changes, or null.
+	 * @return Computer that ran the program, the description of the result and the error alone, in
+	 * an array.
+	 */
+	private Object[] outcome(int evaluator, int program, TraceListener listener)
+	{
+		Computer computer = new Computer();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		computer.setOutput(new PrintStream(output, true));
+		computer.setTraceListener(listener);
+
+		String error;
+		try
+		{
+			ProgramError found = run(evaluator, program, computer);
+			error = found == null ? "none" : found.toString();
+		}
+		catch (RuntimeException e)
+		{
+			error = e.toString();
+		}
+
+		String description = "output: " + output.toString().trim().replace(System.lineSeparator(), " ")
+				+ "\nerror: " + error + "\nvariables: " + variables(computer.symbols)
+				+ "\nstack: " + computer.progStack;
+		return new Object[] {computer, description, "error: " + error};
+	}
+
+
+	/**
+	 * Records a result that differs from the expected one.
+	 * @param what String that names the variant and the program.
+	 * @param text String with the text of the program.
+	 * @param expected String with the expected result.
+	 * @param found String with the result found.
+	 */
+	private void diverged(String what, String text, String expected, String found)
+	{
+		failures++;
+		if (failures <= 5)
+			System.out.println("DIVERGENCE " + what + "\nprogram: " + text + "\nexpected:\n" + expected + "\nfound:\n" + found + "\n");
+	}
+
+
+	/**
+	 * Loads the final variables of a program into every table implementation and checks that each
+	 * one finds the same values. OffHeapSymbolTable replays every assignment, in order.
+	 * @param program int with the index of the program.
+	 * @param text String with the text of the program.
+	 * @param symbols SymbolTable with the final variables of the reference.
+	 * @param assignments ArrayList with every assignment made (name and value).
+	 * @param pool ForkJoinPool for the parallel rehash.
+	 * @throws IOException Handles the exceptions related to the file of the mapped table.
+	 */
+	private void compareTables(int program, String text, SymbolTable<Integer> symbols,
+			ArrayList<TableEntry<String,Integer>> assignments, ForkJoinPool pool) throws IOException
+	{
+		OffHeapSymbolTable offHeap = new OffHeapSymbolTable(5);
+		for (TableEntry<String,Integer> assignment : assignments)
+			offHeap.put(assignment.getKey(), assignment.getValue());
+
+		SymbolTable<Integer> loaded = new SymbolTable<>(5);
+		loaded.putAll(symbols);
+
+		SymbolTable<Integer> rehashed = new SymbolTable<>(5);
+		rehashed.putAll(symbols);
+		rehashed.rehash(rehashed.getCapacity() * 3 + 1, pool);
+
+		File file = File.createTempFile("symbols", ".bin");
+		file.deleteOnExit();
+		MappedSymbolTable.write(symbols, file.getPath());
+
+		tables[program] = new Object[] {symbols, offHeap, loaded, rehashed, MappedSymbolTable.open(file.getPath())};
+		TableEntry<String,Integer>[] entries = symbols.entries();
+		names[program] = new String[entries.length + 1];
+		for (int i = 0; i < entries.length; i++)
+			names[program][i] = entries[i].getKey();
+		names[program][entries.length] = "missing";   // a name that is never assigned
+
+		for (int table = 1; table < TABLES.length; table++)
+		{
+			for (int i = 0; i < names[program].length; i++)
+			{
+				Integer expected = i < entries.length ? entries[i].getValue() : null;
+				Integer found = lookup(table, tables[program][table], names[program][i]);
+				if (expected == null ? found != null : !expected.equals(found))
+					diverged(TABLES[table] + " on program " + program, text, names[program][i] + ":" + expected,
+							names[program][i] + ":" + found);
+			}
+		}
+	}
+
+
+	/**
+	 * Looks a variable up in one of the table implementations.
+	 * @param table int with the index of the implementation in TABLES.
+	 * @param symbols Object with the table.
+	 * @param name String with the name of the variable.
+	 * @return Integer with the value of the variable, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Integer lookup(int table, Object symbols, String name)
+	{
+		switch (table)
+		{
+			case 1:   return ((OffHeapSymbolTable)symbols).get(name);
+			case 4:   return ((MappedSymbolTable)symbols).get(name);
+			default:  return ((SymbolTable<Integer>)symbols).get(name);
+		}
+	}
+
+
+	/**
+	 * Creates an array of program queues.
+	 * @param length int with the number of queues.
+	 * @return Array of Nodes, all null.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Node<String>[] newQueues(int length)
+	{
+		return (Node<String>[])new Node<?>[length];
+	}
+
+
+	/**
+	 * Generates the programs, compiles them and records the profile used by the fused evaluator.
+	 * One program in eight divides by zero and another one in eight reads an undefined variable.
+	 * A faulty program that stops before reaching its fault (a random expression can divide by
+	 * zero too) is generated again.
+	 * @param count int with the number of programs.
+	 * @param seed long with the seed of the random generator.
+	 * @return Array of Strings with the text of each program.
+	 * @throws IOException Handles the exceptions related to the checkpoint file.
+	 */
+	private String[] prepare(int count, long seed) throws IOException
+	{
+		Random random = new Random(seed);
+		String[] texts = new String[count];
+		compiled = new Program[count];
+		fused = new Program[count];
+		queues = newQueues(count);
+		firsts = new int[count];
+		instructions = new long[count];
+		tables = new Object[count][];
+		names = new String[count][];
+		checkpointFile = Files.createTempFile("differential", ".ckpt");
+		Files.deleteIfExists(checkpointFile);
+
+		Profile profile = new Profile();
+		Computer computer = new Computer();
+		computer.setOutput(discard);
+		computer.setProfile(profile);
+
+		for (int i = 0; i < count; i++)
+		{
+			boolean loop = i % 4 == 3;   // a quarter of the programs have a loop
+			int fault = i % 8 == 1 ? ProgramError.UNDEFINED_VARIABLE : i % 8 == 5 ? ProgramError.DIVISION_BY_ZERO : 0;
+			Node<String> queue;
+			ProgramError error;
+			do
+			{
+				texts[i] = generate(random, loop, fault);
+				queue = Computer.stringToNodeQueue(texts[i]);
+				compiled[i] = Program.compile(queue);
+
+				computer.reset();
+				profile.restart();
+				error = computer.run(compiled[i]);
+			}
+			while (fault != 0 && (error == null || error.getPosition() < Arrays.asList(texts[i].split(" ")).indexOf("f")));
+
+			queues[i] = loop ? null : queue;
+			firsts[i] = loop ? COMPILED : fault == ProgramError.UNDEFINED_VARIABLE ? VALIDATED : 0;
+			instructions[i] = computer.getPosition();
+		}
+
+		for (int i = 0; i < count; i++)
+			fused[i] = compiled[i].fuse(profile);
+
+		return texts;
+	}
+
+
+	/**
+	 * Runs every program on every evaluator and every table, counting the results that differ.
+	 * @param texts Array of Strings with the text of each program.
+	 * @throws IOException Handles the exceptions related to the files of the tables.
+	 */
+	private void compare(String[] texts) throws IOException
+	{
+		ForkJoinPool pool = new ForkJoinPool(2);
+
+		for (int program = 0; program < texts.length; program++)
+		{
+			ArrayList<TableEntry<String,Integer>> assignments = new ArrayList<>();
+			TraceListener recorder = new TraceListener()
+			{
+				public void step(long position, String symbol) {}
+				public void pushed(Object value) {}
+				public void popped(Object value) {}
+				public void stored(String variable, int value)
+				{
+					assignments.add(new TableEntry<>(variable, value));
+				}
+			};
+
+			int first = firsts[program];
+			int compared = first == VALIDATED ? 2 : 1;   // the whole description, or only the error
+			Object[] expected = outcome(first, program, recorder);
+			Object[] compiledOutcome = first == VALIDATED ? outcome(COMPILED, program, null) : expected;
+
+			for (int evaluator = first + 1; evaluator < EVALUATORS.length; evaluator++)
+			{
+				Object[] found = outcome(evaluator, program, null);
+				if (!expected[compared].equals(found[compared]))
+					diverged(EVALUATORS[evaluator] + " on program " + program, texts[program], (String)expected[compared],
+							(String)found[compared]);
+				else if (evaluator > COMPILED && !compiledOutcome[1].equals(found[1]))
+					diverged(EVALUATORS[evaluator] + " against compiled on program " + program, texts[program],
+							(String)compiledOutcome[1], (String)found[1]);
+			}
+
+			compareTables(program, texts[program], ((Computer)expected[0]).symbols, assignments, pool);
+		}
+
+		pool.shutdown();
+	}
+
+
+	/**
+	 * Measures the throughput of every evaluator, running every program it can run.
+	 * @return Array of doubles with the instructions per second of each evaluator.
+	 */
+	private double[] timeEvaluators()
+	{
+		double[] throughput = new double[EVALUATORS.length];
+		Computer computer = new Computer();
+		computer.setOutput(discard);
+
+		for (int evaluator = 0; evaluator < EVALUATORS.length; evaluator++)
+		{
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				long executed = 0;
+				long start = System.nanoTime();
+				long elapsed;
+				do
+				{
+					for (int program = 0; program < compiled.length; program++)
+					{
+						if (evaluator < COMPILED && firsts[program] != 0)   // the queue evaluators only time what they all run
+							continue;
+						computer.reset();
+						run(evaluator, program, computer);
+						executed += instructions[program];
+					}
+					elapsed = System.nanoTime() - start;
+				}
+				while (elapsed < ROUND_NANOS);
+
+				throughput[evaluator] = Math.max(throughput[evaluator], executed * 1e9 / elapsed);
+			}
+		}
+
+		return throughput;
+	}
+
+
+	/**
+	 * Measures the throughput of every table implementation, looking up every final variable of
+	 * every program (and a missing one).
+	 * @return Array of doubles with the lookups per second of each table.
+	 */
+	private double[] timeTables()
+	{
+		double[] throughput = new double[TABLES.length];
+
+		for (int table = 0; table < TABLES.length; table++)
+		{
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				long lookups = 0;
+				long start = System.nanoTime();
+				long elapsed;
+				do
+				{
+					for (int program = 0; program < tables.length; program++)
+					{
+						for (String name : names[program])
+							lookup(table, tables[program][table], name);
+						lookups += names[program].length;
+					}
+					elapsed = System.nanoTime() - start;
+				}
+				while (elapsed < ROUND_NANOS);
+
+				throughput[table] = Math.max(throughput[table], lookups * 1e9 / elapsed);
+			}
+		}
+
+		return throughput;
+	}
+
+
+	/**
+	 * Reads the throughput of each variant from the results file of a previous run.
+	 * @param file Path of the results file.
+	 * @param corpus String that identifies the programs measured.
+	 * @return HashMap with the throughput of each variant, empty if there is no file or it measured
+	 * other programs.
+	 * @throws IOException Handles the exceptions related to reading the file.
+	 */
+	private static HashMap<String,Double> readResults(Path file, String corpus) throws IOException
+	{
+		HashMap<String,Double> results = new HashMap<>();
+		if (!Files.exists(file))
+			return results;
+
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			if (!HEADER.equals(in.readLine()) || !corpus.equals(in.readLine()))
+			{
+				System.out.println("The results file measured other programs, it is not compared");
+				return results;
+			}
+
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				String[] words = line.trim().split("\\s+");
+				if (words.length == 2)
+					results.put(words[0], Double.parseDouble(words[1]));
+			}
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Prints the throughput of each variant next to the one of the previous run, and counts the
+	 * variants that got slower than the tolerance allows.
+	 * @param variants Array of Strings with the names of the variants.
+	 * @param throughput Array of doubles with the new throughput of each variant.
+	 * @param previous HashMap with the throughput of the previous run.
+	 * @param tolerance double with the fraction of throughput a variant can lose.
+	 * @param unit String with the unit of the throughput.
+	 * @return int with the number of variants that regressed.
+	 */
+	private static int report(String[] variants, double[] throughput, HashMap<String,Double> previous,
+			double tolerance, String unit)
+	{
+		int regressions = 0;
+
+		for (int i = 0; i < variants.length; i++)
+		{
+			Double before = previous.get(variants[i]);
+			System.out.printf("%-20s %14.0f %s", variants[i], throughput[i], unit);
+
+			if (before != null)
+			{
+				double change = throughput[i] / before - 1;
+				System.out.printf("  %+6.1f%%", change * 100);
+				if (change < -tolerance)
+				{
+					System.out.print("  REGRESSION");
+					regressions++;
+				}
+			}
+			System.out.println();
+		}
+
+		return regressions;
+	}
+
+
+	/**
+	 * Generates the programs, compares every variant and measures them, as described in the class
+	 * comment, and exits with status 1 if a result differs or a variant regressed.
+	 * @param args Optional number of programs (default 400), seed (default 310), results file
+	 * (default differential-results.txt) and tolerance (default 0.25).
+	 * @throws IOException Handles the exceptions related to the files.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 310;
+		Path resultsFile = Paths.get(args.length > 2 ? args[2] : "differential-results.txt");
+		double tolerance = args.length > 3 ? Double.parseDouble(args[3]) : 0.25;
+		String corpus = "programs " + count + " seed " + seed;
+
+		DifferentialHarness harness = new DifferentialHarness();
+		String[] texts = harness.prepare(count, seed);
+		harness.compare(texts);
+		System.out.println(count + " programs compared on " + EVALUATORS.length + " evaluators and "
+				+ TABLES.length + " tables: " + harness.failures + " divergences");
+
+		HashMap<String,Double> previous = readResults(resultsFile, corpus);
+		double[] evaluators = harness.timeEvaluators();
+		double[] tables = harness.timeTables();
+		int regressions = report(EVALUATORS, evaluators, previous, tolerance, "instructions/s")
+				+ report(TABLES, tables, previous, tolerance, "lookups/s     ");
+
+		if (harness.failures > 0 || regressions > 0)
+		{
+			System.out.println("FAILED: " + harness.failures + " divergences, " + regressions + " regressions");
+			System.exit(1);
+		}
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(resultsFile, StandardCharsets.UTF_8)))
+		{
+			out.println(HEADER);
+			out.println(corpus);
+			for (int i = 0; i < EVALUATORS.length; i++)
+				out.println(EVALUATORS[i] + " " + Math.round(evaluators[i]));
+			for (int i = 0; i < TABLES.length; i++)
+				out.println(TABLES[i] + " " + Math.round(tables[i]));
+		}
+		System.out.println("PASSED, results saved to " + resultsFile);
+	}
+}
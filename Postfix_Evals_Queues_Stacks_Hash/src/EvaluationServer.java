@@ -0,0 +1,297 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a long running evaluation server, so short postfix programs don't pay for the
+ * start of a new JVM each time. It reads one program per line, either from the standard input
+ * or from connections to a local (loopback only) TCP port, and evaluates the programs on a pool
+ * of warm Computers that are reset and reused, keeping the storage of their program stacks and
+ * symbol tables. Programs are compiled before they run, so they can use labels and jumps.
+ * Requests are numbered in the order they arrive on each input, and every response is one line
+ * that starts with that number, since responses can come out of order:
+ * <pre>
+ * id ok latencyMicros output1 output2 ...
+ * id error latencyMicros errorCode at position (symbol)
+ * id error latencyMicros STEP_LIMIT at position
+ * id error latencyMicros OUTPUT_LIMIT at position
+ * </pre>
+ * Since a program can loop forever, a program is stopped once it has processed a maximum number
+ * of symbols (STEP_LIMIT) or printed a maximum number of bytes (OUTPUT_LIMIT), so it can't keep
+ * a worker busy forever or fill the memory with its output.
+ * The latency goes from the moment the line was read to the moment the program finished.
+ * A line with the word quit closes the input it was read from.
+ * Usage: java EvaluationServer [workers] [port]
+ *
+ * @author Sergio Delgado
+ */
+public class EvaluationServer
+{
+	public static final long DEFAULT_MAX_STEPS = 100000000;   // symbols a program can process
+	public static final int DEFAULT_MAX_OUTPUT = 1 << 20;     // bytes a program can print
+	private static final int SLICE = 1000;                    // instructions run between checks of the limits
+
+	private ExecutorService executor;      // threads that evaluate the programs
+	private BlockingQueue<Worker> workers; // warm computers not in use
+	private long maxSteps;                 // symbols a program can process before it is stopped
+	private int maxOutput;                 // bytes a program can print before it is stopped
+
+
+	/**
+	 * This class holds a warm Computer and the buffer that captures what its programs print.
+	 */
+	private static class Worker
+	{
+		private Computer computer;
+		private ByteArrayOutputStream buffer;
+
+		/**
+		 * Constructor that creates the computer and redirects its output to the buffer.
+		 */
+		private Worker()
+		{
+			computer = new Computer();
+			buffer = new ByteArrayOutputStream();
+			computer.setOutput(new PrintStream(buffer, false));
+		}
+	}
+
+
+	/**
+	 * Constructor that creates the pool of workers, with the default limits of a program.
+	 * @param size int with the number of programs that can be evaluated at the same time.
+	 */
+	public EvaluationServer(int size)
+	{
+		this(size, DEFAULT_MAX_STEPS, DEFAULT_MAX_OUTPUT);
+	}
+
+
+	/**
+	 * Constructor that creates the pool of workers.
+	 * @param size int with the number of programs that can be evaluated at the same time.
+	 * @param maxSteps long with the number of symbols a program can process before it is stopped.
+	 * @param maxOutput int with the number of bytes a program can print before it is stopped.
+	 */
+	public EvaluationServer(int size, long maxSteps, int maxOutput)
+	{
+		this.maxSteps = maxSteps;
+		this.maxOutput = maxOutput;
+		executor = Executors.newFixedThreadPool(size);
+		workers = new ArrayBlockingQueue<>(size);
+		for (int i = 0; i < size; i++)
+			workers.add(new Worker());
+	}
+
+
+	/**
+	 * Evaluates a program on a worker of the pool and returns the response line for it. The
+	 * program runs in slices of instructions, and it is stopped after the slice in which it
+	 * reaches the limit of symbols or of output.
+	 * @param id long with the number of the request.
+	 * @param program String with the text of the program.
+	 * @param received long with the System.nanoTime() at which the request was read.
+	 * @return String with the response line (without the line terminator).
+	 * @throws InterruptedException If the thread is interrupted while waiting for a worker.
+	 */
+	public String evaluate(long id, String program, long received) throws InterruptedException
+	{
+		Worker worker = workers.take();
+		String status;
+		String result;
+
+		try
+		{
+			worker.computer.reset();
+			worker.buffer.reset();
+
+			Node<String> queue = Computer.stringToNodeQueue(program);
+			Program compiled = Program.compile(queue);
+			Computer.releaseQueue(queue);
+
+			ProgramError error = compiled.getError();
+			String limit = null;
+			if (error == null)
+			{
+				worker.computer.progStack.ensureCapacity(compiled.getMaxDepth());
+				int pc = 0;
+				while (pc < compiled.length() && limit == null)
+				{
+					pc = worker.computer.execute(compiled, pc, SLICE);
+					if (pc < compiled.length() && worker.computer.getPosition() >= maxSteps)
+						limit = "STEP_LIMIT";
+					else if (worker.buffer.size() > maxOutput)
+						limit = "OUTPUT_LIMIT";
+				}
+				error = worker.computer.getError();
+			}
+
+			if (limit != null)
+			{
+				status = "error";
+				result = limit + " at " + worker.computer.getPosition();
+			}
+			else if (error == null)
+			{
+				status = "ok";
+				result = worker.buffer.toString().trim().replace(System.lineSeparator(), " ");
+			}
+			else
+			{
+				status = "error";
+				result = error.toString();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			status = "error";
+			result = e.toString();
+		}
+		finally
+		{
+			workers.add(worker);
+		}
+
+		long latency = (System.nanoTime() - received) / 1000;
+		return id + " " + status + " " + latency + (result.isEmpty() ? "" : " " + result);
+	}
+
+
+	/**
+	 * Reads programs from an input, one per line, until the end of the input or a quit line,
+	 * and writes the responses to the output as the programs finish. It returns once every
+	 * program read has been answered.
+	 * @param in BufferedReader with the requests.
+	 * @param out Writer that receives the responses.
+	 * @throws IOException Handles the exceptions related to reading the requests.
+	 * @throws InterruptedException If the thread is interrupted while waiting for the responses.
+	 */
+	public void serve(BufferedReader in, Writer out) throws IOException, InterruptedException
+	{
+		PrintWriter responses = new PrintWriter(out, false);
+		long[] pending = new long[1];   // programs read but not answered yet (guarded by responses)
+		long id = 0;
+		String line;
+
+		while ((line = in.readLine()) != null && !line.trim().equals("quit"))
+		{
+			if (line.trim().isEmpty())
+				continue;
+
+			long received = System.nanoTime();
+			long requestId = ++id;
+			String program = line;
+			synchronized (responses)
+			{
+				pending[0]++;
+			}
+
+			executor.execute(() -> {
+				try
+				{
+					String response = evaluate(requestId, program, received);
+					synchronized (responses)
+					{
+						responses.println(response);
+						responses.flush();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally   // answered or not, the program is no longer pending
+				{
+					synchronized (responses)
+					{
+						pending[0]--;
+						responses.notifyAll();
+					}
+				}
+			});
+		}
+
+		synchronized (responses)
+		{
+			while (pending[0] > 0)
+				responses.wait();
+		}
+	}
+
+
+	/**
+	 * Accepts connections on a loopback port and serves each one in its own thread.
+	 * @param port int with the port to listen to.
+	 * @throws IOException Handles the exceptions related to opening the port.
+	 */
+	public void listen(int port) throws IOException
+	{
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()))
+		{
+			while (true)
+			{
+				Socket socket = server.accept();
+				Thread connection = new Thread(() -> {
+					try (Socket s = socket)
+					{
+						serve(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)),
+								new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+					}
+					catch (IOException | InterruptedException e)
+					{
+						System.err.println(e.toString());
+					}
+				});
+				connection.setDaemon(true);
+				connection.start();
+			}
+		}
+	}
+
+
+	/**
+	 * Stops accepting programs and waits for the programs being evaluated to finish.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * Starts the server on the standard input, or on a loopback port if one is given.
+	 * @param args Optional number of workers (default number of processors) and port.
+	 * @throws IOException Handles the exceptions related to reading the requests.
+	 * @throws InterruptedException If the thread is interrupted while waiting for the programs.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		EvaluationServer server = new EvaluationServer(size);
+
+		if (args.length > 1)
+			server.listen(Integer.parseInt(args[1]));
+		else
+		{
+			server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+					new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			server.shutdown();
+		}
+	}
+}
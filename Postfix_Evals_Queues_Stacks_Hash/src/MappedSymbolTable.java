@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a read-only view of a SymbolTable&lt;Integer&gt; saved to a file, so the variables
+ * computed by one program can be used by the programs that run after it without running it
+ * again. write() copies the hash table slot by slot, keeping every element at the position it
+ * had in the SymbolTable, and open() maps the file into memory without reading it: a lookup
+ * hashes the name the same way SymbolTable does and probes the mapped slots, so opening a table
+ * of a million variables costs the same as opening one of ten, and only the pages a program
+ * touches are read from disk. The file has the following layout (all numbers are big endian):
+ * <pre>
+ * int magic, int version, int capacity, int number of variables,
+ * capacity slots of 16 bytes: int hash of the name, int offset of the name in the names area
+ *     (EMPTY or TOMBSTONE if the slot has no variable), int length of the name, int value,
+ * names area: the UTF-16 chars of every name.
+ * </pre>
+ * Names are compared char by char against the mapped chars, so a lookup doesn't allocate.
+ * Usage: java MappedSymbolTable export program.txt variables.bin
+ * <br>   java MappedSymbolTable run variables.bin program.txt
+ *
+ * @author Sergio Delgado
+ */
+public class MappedSymbolTable
+{
+	private static final int MAGIC = 0x50465354;   // "PFST"
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;          // bytes before the first slot
+	private static final int SLOT = 16;            // bytes of each slot
+	private static final int EMPTY = -1;           // offset of a slot that never had a variable
+	private static final int TOMBSTONE = -2;       // offset of a slot whose variable was removed
+
+	private ByteBuffer buffer;   // mapped file
+	private int capacity;        // number of slots
+	private int size;            // number of variables
+	private int names;           // offset of the names area
+
+
+	/**
+	 * Constructor that receives the mapped file, after its header was checked by open().
+	 * @param buffer ByteBuffer with the content of the file.
+	 */
+	private MappedSymbolTable(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		capacity = buffer.getInt(8);
+		size = buffer.getInt(12);
+		names = HEADER + capacity * SLOT;
+	}
+
+
+	/**
+	 * Saves a symbol table to a file, keeping the layout of its hash table. The file is written
+	 * through a mapping of its final size, then it replaces the old file (if any) at once.
+	 * Complexity O(capacity + total length of the names).
+	 * @param table SymbolTable to save.
+	 * @param filename String with the name of the file.
+	 * @throws IOException Handles the exceptions related to writing the file, or a table too
+	 * big for a mapped file.
+	 */
+	public static void write(SymbolTable<Integer> table, String filename) throws IOException
+	{
+		int capacity = table.getCapacity();
+		long length = HEADER + (long)capacity * SLOT;
+		for (int i = 0; i < capacity; i++)
+			if (table.getSlot(i) != null && !table.isTombstone(i))
+				length += 2L * table.getSlot(i).getKey().length();
+
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Symbol table too big for a mapped file: " + length + " bytes");
+
+		Path file = Paths.get(filename);
+		Path tempFile = Paths.get(filename + ".tmp");
+		Files.deleteIfExists(tempFile);
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(capacity);
+			out.putInt(table.size());
+
+			int offset = 0;   // next free position of the names area
+			int names = HEADER + capacity * SLOT;
+
+			for (int i = 0; i < capacity; i++)
+			{
+				TableEntry<String,Integer> entry = table.getSlot(i);
+				int slot = HEADER + i * SLOT;
+
+				if (entry == null || table.isTombstone(i))
+				{
+					out.putInt(slot + 4, entry == null ? EMPTY : TOMBSTONE);
+					continue;
+				}
+
+				String name = entry.getKey();
+				out.putInt(slot, name.hashCode());
+				out.putInt(slot + 4, offset);
+				out.putInt(slot + 8, name.length());
+				out.putInt(slot + 12, entry.getValue());
+
+				for (int c = 0; c < name.length(); c++)
+					out.putChar(names + offset + 2 * c, name.charAt(c));
+				offset += 2 * name.length();
+			}
+
+			out.force();
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Maps a file written by write(). Only the header is read. Complexity O(1).
+	 * @param filename String with the name of the file.
+	 * @return MappedSymbolTable with the variables of the file.
+	 * @throws IOException Handles the exceptions related to opening the file, or a file that is
+	 * not a valid symbol table.
+	 */
+	public static MappedSymbolTable open(String filename) throws IOException
+	{
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+		{
+			if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Not a valid symbol table file: " + filename);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   // stays valid after closing
+		}
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) <= 0
+				|| HEADER + (long)buffer.getInt(8) * SLOT > buffer.capacity())
+			throw new IOException("Not a valid symbol table file: " + filename);
+
+		return new MappedSymbolTable(buffer);
+	}
+
+
+	/**
+	 * Returns how many slots the saved table has.
+	 * @return int with the capacity of the saved table.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+
+	/**
+	 * Returns the number of variables in the table.
+	 * @return int with the number of variables.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+
+	/**
+	 * Returns whether or not the name stored in a slot is the given name.
+	 * @param slot int with the offset of the slot in the file.
+	 * @param k String with the name.
+	 * @return Boolean value, true if the names have the same chars.
+	 */
+	private boolean matches(int slot, String k)
+	{
+		if (buffer.getInt(slot + 8) != k.length())
+			return false;
+
+		int name = names + buffer.getInt(slot + 4);
+		for (int c = 0; c < k.length(); c++)
+			if (buffer.getChar(name + 2 * c) != k.charAt(c))
+				return false;
+
+		return true;
+	}
+
+
+	/**
+	 * Returns the offset of the slot that holds a variable, probing from the position SymbolTable
+	 * gives to its name. Worst case: O(n), Average case: O(1)
+	 * @param k String with the name of the variable.
+	 * @return int with the offset of the slot in the file, or -1 if the variable isn't in the table.
+	 */
+	private int find(String k)
+	{
+		int hash = k.hashCode();
+		int position = Math.abs(hash) % capacity;
+
+		for (int probes = 0; probes < capacity; probes++)
+		{
+			int slot = HEADER + position * SLOT;
+			int offset = buffer.getInt(slot + 4);
+
+			if (offset == EMPTY)
+				return -1;
+			if (offset != TOMBSTONE && buffer.getInt(slot) == hash && matches(slot, k))
+				return slot;
+
+			position = (position + 1) % capacity;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Returns whether or not a variable is in the table. Worst case: O(n), Average case: O(1)
+	 * @param k String with the name of the variable.
+	 * @return Boolean value, true if the variable is in the table.
+	 */
+	public boolean contains(String k)
+	{
+		return find(k) >= 0;
+	}
+
+
+	/**
+	 * Returns the value of a variable, or a default value if it isn't in the table. It doesn't
+	 * allocate. Worst case: O(n), Average case: O(1)
+	 * @param k String with the name of the variable.
+	 * @param missing int value returned when the variable isn't in the table.
+	 * @return int with the value of the variable, or missing.
+	 */
+	public int getInt(String k, int missing)
+	{
+		int slot = find(k);
+		return slot < 0 ? missing : buffer.getInt(slot + 12);
+	}
+
+
+	/**
+	 * Returns the value of a variable. Worst case: O(n), Average case: O(1)
+	 * @param k String with the name of the variable.
+	 * @return Integer with the value of the variable, or null if it isn't in the table.
+	 */
+	public Integer get(String k)
+	{
+		int slot = find(k);
+		return slot < 0 ? null : buffer.getInt(slot + 12);
+	}
+
+
+	/**
+	 * Saves the variables of a program to a file, or runs a program with the variables of a file,
+	 * as described in the class comment. Without arguments, tests the class with calls to its methods.
+	 * @param args Mode (export or run) and the names of the program and the variables file.
+	 * @throws IOException Handles the exceptions related to the files.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 3 && args[0].equals("export"))
+		{
+			Computer computer = new Computer();
+			computer.runProgram(args[1], false);
+			if (computer.getError() == null)
+				write(computer.symbols, args[2]);
+			return;
+		}
+
+		if (args.length == 3 && args[0].equals("run"))
+		{
+			Computer computer = new Computer();
+			computer.setImports(open(args[1]));
+			computer.runProgram(args[2], false);
+			return;
+		}
+
+		if (args.length != 0)
+		{
+			System.out.println("Usage: java MappedSymbolTable [export program.txt variables.bin | run variables.bin program.txt]");
+			System.exit(0);
+		}
+
+		Path file = Files.createTempFile("symbols", ".bin");
+		file.toFile().deleteOnExit();
+
+		SymbolTable<Integer> table = new SymbolTable<>(5);
+		table.put("a", 1);
+		table.put("b", 2);
+		table.put("e", 3);
+		table.put("y", 4);
+		table.remove("e");
+		write(table, file.toString());
+		MappedSymbolTable mapped = open(file.toString());
+
+		if (mapped.getCapacity() == 10 && mapped.size() == 3 && mapped.contains("y") && !mapped.contains("e"))
+			System.out.println("Yay 1");
+
+		if (mapped.get("a").equals(1) && mapped.get("b").equals(2) && mapped.get("y").equals(4)
+				&& mapped.get("e") == null && mapped.get("x") == null && mapped.getInt("x", -7) == -7)
+			System.out.println("Yay 2");
+
+		table = new SymbolTable<>(5);
+		for (int i = 0; i < 100000; i++)
+			table.put("v" + i, i - 50000);
+		write(table, file.toString());
+		mapped = open(file.toString());
+
+		boolean same = mapped.size() == table.size();
+		for (int i = 0; i < 100000; i++)
+			same = same && mapped.getInt("v" + i, 0) == i - 50000;
+		if (same && mapped.get("v100000") == null)
+			System.out.println("Yay 3");
+
+		try
+		{
+			Files.write(file, new byte[32]);
+			open(file.toString());
+		}
+		catch (IOException e)
+		{
+			System.out.println("Yay 4");
+		}
+	}
+}
@@ -0,0 +1,475 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class stores variables and their integer values outside of the Java heap, for programs
+ * that define so many variables that the objects of a SymbolTable (one TableEntry, one String
+ * and one Integer per variable) make full garbage collections too slow.
+ * The table uses linear probing over a flat array of fixed size slots kept in a direct
+ * ByteBuffer. Each slot holds four ints: the hash of the key, the offset of the key in the key
+ * area, the length of the key plus one (0 for an empty slot, -1 for a tombstone) and the value.
+ * The UTF-8 bytes of the keys are appended to a second direct ByteBuffer (the key area), which
+ * is compacted every time the table is rehashed. The garbage collector only sees the two buffers.
+ * It has the same put/get/remove/size contract as SymbolTable&lt;Integer&gt;.
+ *
+ * @author Sergio Delgado
+ */
+public class OffHeapSymbolTable
+{
+	private static final int SLOT_BYTES = 16;   // hash, key offset, key length + 1, value
+	private static final int EMPTY = 0;
+	private static final int TOMBSTONE = -1;
+	private static final int MAX_SLOTS = 1 << 26;     // largest power of two slot array a ByteBuffer can hold
+
+	private int maxSlots;       // largest capacity the table grows to
+	private ByteBuffer slots;   // flat array of slots
+	private ByteBuffer keys;    // UTF-8 bytes of the keys
+	private int capacity;       // number of slots, always a power of two
+	private int size;           // number of active elements
+	private int used;           // number of active elements plus tombstones
+	private byte[] scratch;     // reusable buffer holding the UTF-8 bytes of the key being looked up
+	private int scratchLength;  // number of bytes of scratch in use
+
+
+	/**
+	 * Constructor with initial capacity received as parameter. The capacity is rounded up
+	 * to a power of two.
+	 * @param s int requested initial size for the hash table.
+	 */
+	public OffHeapSymbolTable(int s)
+	{
+		this(s, MAX_SLOTS);
+	}
+
+	/**
+	 * Constructor with initial capacity and maximum capacity received as parameters. Both are
+	 * rounded up to a power of two, the maximum one to at most MAX_SLOTS.
+	 * @param s int requested initial size for the hash table.
+	 * @param max int requested maximum size for the hash table.
+	 */
+	OffHeapSymbolTable(int s, int max)
+	{
+		maxSlots = 2;
+		while (maxSlots < max && maxSlots < MAX_SLOTS)
+			maxSlots *= 2;
+
+		capacity = 1;
+		while (capacity < s && capacity < maxSlots)
+			capacity *= 2;
+
+		slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+		keys = ByteBuffer.allocateDirect(Math.max(64, capacity * 8));
+		scratch = new byte[32];
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Returns how big the storage is
+	 * @return int with current table's capacity (number of slots).
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of elements in the table
+	 * @return int with number of elements
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes this table holds outside of the heap.
+	 * @return long with the capacity of the slot array plus the capacity of the key area.
+	 */
+	public long offHeapBytes()
+	{
+		return (long)slots.capacity() + keys.capacity();
+	}
+
+	/**
+	 * Encodes the key into the scratch buffer and returns its hash (FNV-1a of the UTF-8 bytes).
+	 * Keys made only of ASCII characters, which is the case for every identifier of a postfix
+	 * program, are encoded without creating any object.
+	 * @param key String to encode.
+	 * @return int with the hash of the key.
+	 */
+	private int encode(String key)
+	{
+		int length = key.length();
+		boolean ascii = true;
+
+		if (scratch.length < length)
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+
+		for (int i = 0; i < length && ascii; i++)
+		{
+			char c = key.charAt(i);
+			if (c < 0x80)
+				scratch[i] = (byte)c;
+			else
+				ascii = false;
+		}
+
+		if (ascii)
+			scratchLength = length;
+		else
+		{
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			if (scratch.length < bytes.length)
+				scratch = new byte[bytes.length];
+			System.arraycopy(bytes, 0, scratch, 0, bytes.length);
+			scratchLength = bytes.length;
+		}
+
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < scratchLength; i++)
+			hash = (hash ^ (scratch[i] & 0xFF)) * 0x01000193;
+
+		return hash;
+	}
+
+	/**
+	 * Returns true if the key stored in the given slot is equal to the key in the scratch buffer.
+	 * @param slot int with the byte offset of the slot.
+	 * @return Boolean value with whether or not the keys are equal.
+	 */
+	private boolean keyEquals(int slot)
+	{
+		if (slots.getInt(slot + 8) - 1 != scratchLength)
+			return false;
+
+		int offset = slots.getInt(slot + 4);
+		for (int i = 0; i < scratchLength; i++)
+			if (keys.get(offset + i) != scratch[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Returns the byte offset of the slot holding the key in the scratch buffer,
+	 * or -1 if the key is not in the table.
+	 * @param hash int with the hash of the key.
+	 * @return int with the byte offset of the slot found.
+	 */
+	private int find(int hash)
+	{
+		int mask = capacity - 1;
+		int index = hash & mask;
+		int state = slots.getInt(index * SLOT_BYTES + 8);
+
+		while (state != EMPTY)
+		{
+			int slot = index * SLOT_BYTES;
+			if (state != TOMBSTONE && slots.getInt(slot) == hash && keyEquals(slot))
+				return slot;
+
+			index = (index + 1) & mask;
+			state = slots.getInt(index * SLOT_BYTES + 8);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Appends the key in the scratch buffer to the key area, growing it if necessary.
+	 * @return int with the offset of the key in the key area.
+	 */
+	private int appendKey()
+	{
+		if (keys.capacity() - keys.position() < scratchLength)
+		{
+			long newCapacity = Math.max((long)keys.capacity() * 2, (long)keys.position() + scratchLength);
+			if (newCapacity > Integer.MAX_VALUE)
+				throw new IllegalStateException("Key area of the off-heap symbol table is full");
+
+			ByteBuffer bigger = ByteBuffer.allocateDirect((int)newCapacity);
+			keys.flip();
+			bigger.put(keys);
+			keys = bigger;
+		}
+
+		int offset = keys.position();
+		keys.put(scratch, 0, scratchLength);
+		return offset;
+	}
+
+	/**
+	 * Puts an element in the table. If the key already exists in the table its value is replaced.
+	 * If the table is 80% full (counting tombstones) after the addition it is rehashed, into twice
+	 * its size unless most of the used slots were tombstones. Once the table has its maximum size
+	 * it is only rehashed to drop tombstones, and it keeps filling up to one empty slot (which every
+	 * probe needs in order to stop).
+	 * Worst case: O(n), Average case: O(1)
+	 * @param k String with key of the element of the table.
+	 * @param v int value of the element of the table.
+	 * @throws IllegalStateException If the key is new and the table is full.
+	 */
+	public void put(String k, int v)
+	{
+		int hash = encode(k);
+		int slot = find(hash);
+
+		if (slot != -1)
+		{
+			slots.putInt(slot + 12, v);
+			return;
+		}
+
+		if (used >= capacity - 1)   // the last empty slot would be taken
+		{
+			rehash(capacity < maxSlots ? capacity * 2 : capacity);   // grow, or at least drop the tombstones
+			if (used >= capacity - 1)
+				throw new IllegalStateException("Off-heap symbol table is full: " + size + " variables in "
+						+ capacity + " slots");
+		}
+
+		int mask = capacity - 1;
+		int index = hash & mask;
+		while (slots.getInt(index * SLOT_BYTES + 8) > 0)   // first empty space or tombstone
+			index = (index + 1) & mask;
+
+		slot = index * SLOT_BYTES;
+		if (slots.getInt(slot + 8) == EMPTY)
+			used++;
+
+		slots.putInt(slot, hash);
+		slots.putInt(slot + 4, appendKey());
+		slots.putInt(slot + 8, scratchLength + 1);
+		slots.putInt(slot + 12, v);
+		size++;
+
+		if ((float)used / capacity >= 0.8)
+		{
+			if (size * 2 < used)                   // mostly tombstones
+				rehash(capacity);
+			else if (size * 2 >= capacity && capacity < maxSlots)
+				rehash(capacity * 2);
+			else if (capacity < maxSlots)
+				rehash(capacity);
+		}
+	}
+
+	/**
+	 * Returns the value of the element of the table whose key equals parameter k.
+	 * Worst case: O(n), Average case: O(1)
+	 * @param k Key of an element of the table.
+	 * @return Integer with the value of the element. It returns null if the element
+	 * wasn't found in the table.
+	 */
+	public Integer get(String k)
+	{
+		int slot = find(encode(k));
+		return slot == -1 ? null : slots.getInt(slot + 12);
+	}
+
+	/**
+	 * Returns the value of the element of the table whose key equals parameter k, without
+	 * boxing it. Worst case: O(n), Average case: O(1)
+	 * @param k Key of an element of the table.
+	 * @param missing int value returned if the element isn't in the table.
+	 * @return int with the value of the element, or missing.
+	 */
+	public int getInt(String k, int missing)
+	{
+		int slot = find(encode(k));
+		return slot == -1 ? missing : slots.getInt(slot + 12);
+	}
+
+	/**
+	 * Removes the given key (and associated value) from the table, leaving a tombstone in its slot.
+	 * Worst case: O(n), Average case: O(1)
+	 * @param k String with the key of the element to remove.
+	 * @return Integer with the value of the element removed, or null if the element is
+	 * not in the table.
+	 */
+	public Integer remove(String k)
+	{
+		int slot = find(encode(k));
+		if (slot == -1)
+			return null;
+
+		slots.putInt(slot + 8, TOMBSTONE);
+		size--;
+		return slots.getInt(slot + 12);
+	}
+
+	/**
+	 * Moves every active element into a new slot array of the given size, dropping the tombstones
+	 * and compacting the key area. The new size is capped at the maximum size of the table. If it
+	 * won't fit all the elements plus an empty slot, return false and do not rehash.
+	 * @param newSize int with the new capacity of the table, rounded up to a power of two.
+	 * @return Boolean value with whether or not the rehashing was executed.
+	 */
+	public boolean rehash(int newSize)
+	{
+		int newCapacity = 1;
+		while (newCapacity < newSize && newCapacity < maxSlots)
+			newCapacity *= 2;
+
+		if (newCapacity <= size + 1)
+			return false;
+
+		ByteBuffer oldSlots = slots;
+		ByteBuffer oldKeys = keys;
+		int oldCapacity = capacity;
+
+		slots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+		keys = ByteBuffer.allocateDirect(Math.max(64, oldKeys.position()));
+		capacity = newCapacity;
+		used = size;
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldCapacity; i++)
+		{
+			int oldSlot = i * SLOT_BYTES;
+			int state = oldSlots.getInt(oldSlot + 8);
+			if (state > 0)
+			{
+				int hash = oldSlots.getInt(oldSlot);
+				int index = hash & mask;
+				while (slots.getInt(index * SLOT_BYTES + 8) != EMPTY)
+					index = (index + 1) & mask;
+
+				int offset = keys.position();
+				int oldOffset = oldSlots.getInt(oldSlot + 4);
+				for (int j = 0; j < state - 1; j++)
+					keys.put(oldKeys.get(oldOffset + j));
+
+				int slot = index * SLOT_BYTES;
+				slots.putInt(slot, hash);
+				slots.putInt(slot + 4, offset);
+				slots.putInt(slot + 8, state);
+				slots.putInt(slot + 12, oldSlots.getInt(oldSlot + 12));
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the heap in use after asking for a full garbage collection.
+	 * @return long with the bytes of heap in use.
+	 */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns the milliseconds taken by a full garbage collection.
+	 * @return long with the milliseconds of the collection.
+	 */
+	private static long fullGcMillis()
+	{
+		long start = System.nanoTime();
+		System.gc();
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Returns the total number of collections and the total collection time, in milliseconds,
+	 * reported by the garbage collectors so far.
+	 * @return long array with the number of collections and their total time.
+	 */
+	private static long[] gcTotals()
+	{
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			totals[0] += gc.getCollectionCount();
+			totals[1] += gc.getCollectionTime();
+		}
+		return totals;
+	}
+
+	/**
+	 * Main method that tests the table and then reports the memory footprint and the impact on
+	 * garbage collection of this table compared with SymbolTable&lt;Integer&gt;.
+	 * Run it with a bigger heap for big tables, for example:
+	 * java -Xmx4g -XX:MaxDirectMemorySize=4g OffHeapSymbolTable 10000000
+	 * @param args Optional number of variables to store (default 1000000).
+	 */
+	public static void main(String[] args)
+	{
+		OffHeapSymbolTable st = new OffHeapSymbolTable(4);
+		st.put("a", 1);
+		st.put("b", 2);
+		st.put("e", 3);
+		st.put("b", 20);
+
+		if (st.size() == 3 && st.get("a") == 1 && st.get("b") == 20 && st.get("e") == 3 && st.get("z") == null) {
+			System.out.println("Yay 1");
+		}
+
+		if (st.remove("e") == 3 && st.size() == 2 && st.get("e") == null && st.remove("e") == null) {
+			System.out.println("Yay 2");
+		}
+
+		for (int i = 0; i < 1000; i++)
+			st.put("v" + i, i);
+		boolean allFound = true;
+		for (int i = 0; i < 1000; i++)
+			allFound = allFound && st.getInt("v" + i, -1) == i;
+		if (allFound && st.size() == 1002 && st.get("b") == 20 && st.get("\u00e9t\u00e9") == null) {
+			System.out.println("Yay 3");
+		}
+
+		OffHeapSymbolTable small = new OffHeapSymbolTable(2, 8);
+		for (int i = 0; i < 7; i++)
+			small.put("s" + i, i);
+		try
+		{
+			small.put("s7", 7);
+		}
+		catch (IllegalStateException e)
+		{
+			small.remove("s0");
+			small.put("s7", 7);
+			if (small.getCapacity() == 8 && small.size() == 7 && small.get("s0") == null && small.get("s7") == 7
+					&& small.get("missing") == null)
+				System.out.println("Yay 4");
+		}
+
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++)
+			names[i] = "var" + i;
+
+		long baseHeap = usedHeap();
+
+		long[] before = gcTotals();
+		SymbolTable<Integer> onHeap = new SymbolTable<>(16);
+		for (int i = 0; i < n; i++)
+			onHeap.put(names[i], i);
+		long[] after = gcTotals();
+		long onHeapBytes = usedHeap() - baseHeap;
+		long onHeapGc = fullGcMillis();
+		System.out.println("SymbolTable:        " + n + " variables, heap " + onHeapBytes / 1024 + " KB"
+				+ ", off-heap 0 KB, GCs while loading " + (after[0] - before[0]) + " (" + (after[1] - before[1])
+				+ " ms), full GC " + onHeapGc + " ms, check " + onHeap.get(names[n - 1]));
+		onHeap = null;
+
+		baseHeap = usedHeap();
+		before = gcTotals();
+		OffHeapSymbolTable offHeap = new OffHeapSymbolTable(16);
+		for (int i = 0; i < n; i++)
+			offHeap.put(names[i], i);
+		after = gcTotals();
+		long offHeapBytes = usedHeap() - baseHeap;
+		long offHeapGc = fullGcMillis();
+		System.out.println("OffHeapSymbolTable: " + n + " variables, heap " + Math.max(0, offHeapBytes) / 1024 + " KB"
+				+ ", off-heap " + offHeap.offHeapBytes() / 1024 + " KB, GCs while loading " + (after[0] - before[0])
+				+ " (" + (after[1] - before[1]) + " ms), full GC " + offHeapGc + " ms, check " + offHeap.get(names[n - 1]));
+	}
+}
@@ -0,0 +1,152 @@
+import java.util.Random;
+
+/**
+ * This class measures the cost of dispatching operators, comparing the switch on the String
+ * of the operator that Computer.operate used before (a hashCode and an equals for every
+ * operation) with the codes of the Operators registry (a switch over consecutive ints).
+ * Both evaluate the same random sequence of operators of the original four (+ - * /), so the
+ * difference is only the dispatch. A third measurement runs the registry over a random mix of
+ * all its binary operators but the power (whose cost is its loop): the lookup costs the same,
+ * but a mix of more operators makes the jump of the switch harder to predict.
+ * Usage: java OperatorBenchmark [operations]
+ *
+ * @author Sergio Delgado
+ */
+public class OperatorBenchmark
+{
+	private static final int ROUNDS = 10;   // rounds of each measurement (the first ones warm up the JIT)
+
+
+	/**
+	 * Original dispatch of Computer.operate: a switch on the String of the operator.
+	 * @param operand1 int value of the first operand.
+	 * @param operand2 int value of the second operand (not 0).
+	 * @param operator String value of the operator.
+	 * @return int value with the result of the operation.
+	 */
+	private static int operateString(int operand1, int operand2, String operator)
+	{
+		int result = 0;
+
+		switch (operator)
+		{
+			case "+":
+				result = operand1 + operand2;
+			break;
+			case "-":
+				result = operand1 - operand2;
+			break;
+			case "*":
+				result = operand1 * operand2;
+			break;
+			case "/":
+				result = operand1 / operand2;
+			break;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Folds a sequence of operations with the String dispatch.
+	 * @param operators Array of Strings with the operator of each operation.
+	 * @param operands Array of ints with the second operand of each operation (not 0).
+	 * @return int value with the result of the last operation.
+	 */
+	private static int runStrings(String[] operators, int[] operands)
+	{
+		int accumulator = 1;
+		for (int i = 0; i < operators.length; i++)
+			accumulator = operateString(accumulator, operands[i], operators[i]);
+		return accumulator;
+	}
+
+
+	/**
+	 * Folds a sequence of operations with the dispatch of the Operators registry.
+	 * @param codes Array of ints with the code of the operator of each operation.
+	 * @param operands Array of ints with the second operand of each operation (not 0).
+	 * @return int value with the result of the last operation.
+	 */
+	private static int runCodes(int[] codes, int[] operands)
+	{
+		int accumulator = 1;
+		for (int i = 0; i < codes.length; i++)
+			accumulator = Operators.apply(codes[i], accumulator, operands[i]);
+		return accumulator;
+	}
+
+
+	/**
+	 * Prints the best time per operation of several rounds of a measurement.
+	 * @param label String that names the measurement.
+	 * @param operations int with the number of operations of each round.
+	 * @param nanos Array of longs with the time of each round.
+	 */
+	private static void report(String label, int operations, long[] nanos)
+	{
+		long best = Long.MAX_VALUE;
+		for (long time : nanos)
+			best = Math.min(best, time);
+		System.out.printf("%-32s %6.2f ns/operation%n", label, (double)best / operations);
+	}
+
+
+	/**
+	 * Creates random sequences of operations and reports the time per operation of each dispatch.
+	 * @param args Optional number of operations of each round (default 5000000).
+	 */
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		Random random = new Random(310);
+		String[] original = {"+", "-", "*", "/"};
+		int binary = 0;
+		while (Operators.arity(binary) == 2)
+			binary++;
+
+		String[] operators = new String[operations];
+		int[] codes = new int[operations];
+		int[] allCodes = new int[operations];
+		int[] operands = new int[operations];
+
+		for (int i = 0; i < operations; i++)
+		{
+			operators[i] = original[random.nextInt(original.length)];
+			codes[i] = Operators.lookup(operators[i]);   // resolved once, like Program.compile does
+			do
+				allCodes[i] = random.nextInt(binary);
+			while (allCodes[i] == Operators.POWER);
+			operands[i] = 1 + random.nextInt(30);          // never 0, so nothing divides by zero
+		}
+
+		long[] stringNanos = new long[ROUNDS];
+		long[] codeNanos = new long[ROUNDS];
+		long[] allNanos = new long[ROUNDS];
+		long sink = 0;
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			sink += runStrings(operators, operands);
+			stringNanos[round] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sink += runCodes(codes, operands);
+			codeNanos[round] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sink += runCodes(allCodes, operands);
+			allNanos[round] = System.nanoTime() - start;
+		}
+
+		if (runStrings(operators, operands) != runCodes(codes, operands))
+			System.out.println("The two dispatches give different results!");
+
+		report("String switch (+ - * /)", operations, stringNanos);
+		report("Operators codes (+ - * /)", operations, codeNanos);
+		report("Operators codes (" + (binary - 1) + " operators)", operations, allNanos);
+		System.out.println("checksum: " + sink);
+	}
+}
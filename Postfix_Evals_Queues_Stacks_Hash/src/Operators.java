@@ -0,0 +1,194 @@
+import java.util.HashMap;
+
+/**
+ * This class is the registry of the integer operators a program can use. Each operator has a
+ * code (its index in the registry), a symbol and an arity:
+ * <pre>
+ * +  -  *  /  %       add, subtract, multiply, divide and remainder
+ * ^                   power
+ * &amp;  |  xor  &lt;&lt;  &gt;&gt;   bitwise and, or, exclusive or, shift left and arithmetic shift right
+ * min  max            minimum and maximum
+ * neg                 negation (unary: pops one operand)
+ * </pre>
+ * Binary operators follow the order of the original Computer: operand1 is the value popped first
+ * (the top of the stack) and the result is operand1 operator operand2.
+ * A symbol is looked up once, when the program is compiled (or once per symbol for a queue), and
+ * from then on the operator is only its code: apply() dispatches on it with a switch over
+ * consecutive int cases, which the JVM compiles to a jump table, so it costs the same for any
+ * number of operators. Adding an operator only takes a new code, its symbol and arity, and a case.
+ *
+ * @author Sergio Delgado
+ */
+public class Operators
+{
+	public static final int ADD = 0;
+	public static final int SUBTRACT = 1;
+	public static final int MULTIPLY = 2;
+	public static final int DIVIDE = 3;
+	public static final int REMAINDER = 4;
+	public static final int POWER = 5;
+	public static final int AND = 6;
+	public static final int OR = 7;
+	public static final int XOR = 8;
+	public static final int SHIFT_LEFT = 9;
+	public static final int SHIFT_RIGHT = 10;
+	public static final int MIN = 11;
+	public static final int MAX = 12;
+	public static final int NEGATE = 13;
+
+	private static final String[] SYMBOLS = {"+", "-", "*", "/", "%", "^", "&", "|", "xor", "<<", ">>",
+			"min", "max", "neg"};
+	private static final int[] ARITIES = {2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1};
+
+	private static final HashMap<String,Integer> CODES = new HashMap<>();
+
+	static
+	{
+		for (int code = 0; code < SYMBOLS.length; code++)
+			CODES.put(SYMBOLS[code], code);
+	}
+
+
+	/**
+	 * Returns the code of the operator with the given symbol.
+	 * @param symbol String with the symbol.
+	 * @return int with the code of the operator, or -1 if the symbol isn't an operator.
+	 */
+	public static int lookup(String symbol)
+	{
+		Integer code = CODES.get(symbol);
+		return code == null ? -1 : code;
+	}
+
+
+	/**
+	 * Returns the number of operators of the registry. Their codes go from 0 to count() - 1.
+	 * @return int with the number of operators.
+	 */
+	public static int count()
+	{
+		return SYMBOLS.length;
+	}
+
+
+	/**
+	 * Returns the number of operands an operator pops.
+	 * @param code int with the code of the operator.
+	 * @return int with 1 for unary operators and 2 for binary ones.
+	 */
+	public static int arity(int code)
+	{
+		return ARITIES[code];
+	}
+
+
+	/**
+	 * Returns the symbol of an operator.
+	 * @param code int with the code of the operator.
+	 * @return String with the symbol used in programs.
+	 */
+	public static String symbol(int code)
+	{
+		return SYMBOLS[code];
+	}
+
+
+	/**
+	 * Returns whether or not an operation has no integer result, which is a division (or a
+	 * remainder) by zero, or 0 to a negative power.
+	 * @param code int with the code of the operator.
+	 * @param operand1 int value of the first operand.
+	 * @param operand2 int value of the second operand.
+	 * @return Boolean value, true if the operation divides by zero.
+	 */
+	public static boolean dividesByZero(int code, int operand1, int operand2)
+	{
+		return ((code == DIVIDE || code == REMAINDER) && operand2 == 0) || (code == POWER && operand1 == 0 && operand2 < 0);
+	}
+
+
+	/**
+	 * Returns operand1 to the power of operand2, by repeated squaring (it wraps around on overflow
+	 * like the other operators). A negative power is the integer division 1 / operand1^-operand2,
+	 * which is 0 unless operand1 is 1 or -1.
+	 * @param operand1 int value of the base.
+	 * @param operand2 int value of the exponent.
+	 * @return int value of the power.
+	 */
+	private static int power(int operand1, int operand2)
+	{
+		if (operand2 < 0)
+			return operand1 == 1 ? 1 : operand1 == -1 ? ((operand2 & 1) == 0 ? 1 : -1) : 0;
+
+		int result = 1;
+		int base = operand1;
+		for (int exponent = operand2; exponent > 0; exponent >>= 1)
+		{
+			if ((exponent & 1) != 0)
+				result *= base;
+			base *= base;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Applies an operator to its operands. The operation must not divide by zero (see
+	 * dividesByZero()). Shifts use the lowest 5 bits of operand2, like Java does.
+	 * @param code int with the code of the operator.
+	 * @param operand1 int value of the first operand.
+	 * @param operand2 int value of the second operand (ignored by unary operators).
+	 * @return int value with the result of the operation.
+	 */
+	public static int apply(int code, int operand1, int operand2)
+	{
+		switch (code)
+		{
+			case ADD:          return operand1 + operand2;
+			case SUBTRACT:     return operand1 - operand2;
+			case MULTIPLY:     return operand1 * operand2;
+			case DIVIDE:       return operand1 / operand2;
+			case REMAINDER:    return operand1 % operand2;
+			case POWER:        return power(operand1, operand2);
+			case AND:          return operand1 & operand2;
+			case OR:           return operand1 | operand2;
+			case XOR:          return operand1 ^ operand2;
+			case SHIFT_LEFT:   return operand1 << operand2;
+			case SHIFT_RIGHT:  return operand1 >> operand2;
+			case MIN:          return Math.min(operand1, operand2);
+			case MAX:          return Math.max(operand1, operand2);
+			case NEGATE:       return -operand1;
+			default:           throw new IllegalArgumentException("No operator with code " + code);
+		}
+	}
+
+
+	/**
+	 * Tests the class Operators with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		if (lookup("+") == ADD && lookup("xor") == XOR && lookup("neg") == NEGATE && lookup("x") == -1)
+			System.out.println("Yay 1");
+
+		if (apply(ADD, 3, 2) == 5 && apply(SUBTRACT, 3, 2) == 1 && apply(DIVIDE, 7, 2) == 3
+				&& apply(REMAINDER, 7, 2) == 1)
+			System.out.println("Yay 2");
+
+		if (apply(POWER, 2, 10) == 1024 && apply(POWER, 5, 0) == 1 && apply(POWER, 2, -1) == 0
+				&& apply(POWER, -1, -3) == -1)
+			System.out.println("Yay 3");
+
+		if (apply(AND, 12, 10) == 8 && apply(OR, 12, 10) == 14 && apply(XOR, 12, 10) == 6
+				&& apply(SHIFT_LEFT, 1, 4) == 16 && apply(SHIFT_RIGHT, -16, 2) == -4)
+			System.out.println("Yay 4");
+
+		if (apply(MIN, 3, -2) == -2 && apply(MAX, 3, -2) == 3 && apply(NEGATE, 3, 0) == -3 && arity(NEGATE) == 1)
+			System.out.println("Yay 5");
+
+		if (dividesByZero(DIVIDE, 1, 0) && dividesByZero(REMAINDER, 1, 0) && dividesByZero(POWER, 0, -1)
+				&& !dividesByZero(MULTIPLY, 1, 0))
+			System.out.println("Yay 6");
+	}
+}
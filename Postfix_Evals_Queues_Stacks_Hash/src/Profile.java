@@ -0,0 +1,402 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class counts the sequences of instructions a Computer executes, so Program.fuse() can
+ * replace the most frequent ones with superinstructions. Each instruction executed is reduced to
+ * its shape (a push of a literal or of a variable, an operation, an assignment...) and the class
+ * counts every sequence of 2 to 5 consecutive shapes (n-grams). The shapes have 8 values, so each
+ * n-gram is a number in base 8 and the counts are kept in a single array indexed by it, without
+ * allocating anything while a program runs.
+ * A profile is saved as a text file with one n-gram per line and loaded again by the next runs,
+ * which keep adding to its counts:
+ * <pre>
+ * # postfix profile 1
+ * total instructions
+ * count SHAPE SHAPE ...
+ * </pre>
+ * Usage: java Profile record profile.txt program1.txt program2.txt ...
+ * <br>   java Profile run profile.txt program.txt
+ * <br>   java Profile (tests the class)
+ *
+ * @author Sergio Delgado
+ */
+public class Profile
+{
+	public static final int PUSH_LITERAL = 0;
+	public static final int PUSH_VARIABLE = 1;
+	public static final int OPERATE = 2;
+	public static final int OPERATE_UNARY = 3;
+	public static final int ASSIGN = 4;
+	public static final int PRINT = 5;
+	public static final int JUMP = 6;
+	public static final int JUMP_IF_ZERO = 7;
+	public static final int ANY_PUSH = -1;   // in count(): PUSH_LITERAL or PUSH_VARIABLE
+
+	public static final int MAX_LENGTH = 5;   // longest sequence counted
+
+	private static final String[] NAMES = {"PUSH_LITERAL", "PUSH_VARIABLE", "OPERATE", "OPERATE_UNARY",
+			"ASSIGN", "PRINT", "JUMP", "JUMP_IF_ZERO"};
+	private static final String HEADER = "# postfix profile 1";
+	private static final int[] FIRST = {0, 0, 0, 64, 64 + 512, 64 + 512 + 4096};   // first index of each length
+	private static final int COUNTS = 64 + 512 + 4096 + 32768;
+
+	private long[] counts;   // times each n-gram was executed, indexed by FIRST[length] + n-gram
+	private long total;      // instructions recorded
+	private int recent;      // shapes of the last MAX_LENGTH - 1 instructions, newest in the lowest digit
+	private int recorded;    // instructions recorded since the last restart (up to MAX_LENGTH - 1)
+
+
+	/**
+	 * Constructor that creates an empty profile.
+	 */
+	public Profile()
+	{
+		counts = new long[COUNTS];
+	}
+
+
+	/**
+	 * Returns the name of a shape.
+	 * @param shape int with one of the shapes of this class.
+	 * @return String with its name.
+	 */
+	public static String name(int shape)
+	{
+		return NAMES[shape];
+	}
+
+
+	/**
+	 * Adds an executed instruction to the profile, counting every sequence it ends. Complexity O(1).
+	 * @param shape int with the shape of the instruction (see Program.shape()).
+	 */
+	public void record(int shape)
+	{
+		int gram = shape;
+		int previous = recent;
+		int scale = 8;
+
+		for (int length = 2; length <= Math.min(MAX_LENGTH, recorded + 1); length++)
+		{
+			gram += (previous & 7) * scale;   // one more instruction before this one
+			previous >>= 3;
+			scale *= 8;
+			counts[FIRST[length] + gram]++;
+		}
+
+		recent = ((recent << 3) | shape) & ((1 << 3 * (MAX_LENGTH - 1)) - 1);
+		if (recorded < MAX_LENGTH - 1)
+			recorded++;
+		total++;
+	}
+
+
+	/**
+	 * Forgets the last instructions recorded, so no sequence is counted across the end of a program
+	 * and the start of the next one.
+	 */
+	public void restart()
+	{
+		recent = 0;
+		recorded = 0;
+	}
+
+
+	/**
+	 * Returns the number of instructions recorded.
+	 * @return long with the number of instructions.
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+
+	/**
+	 * Returns how many times a sequence of shapes was executed. ANY_PUSH matches both pushes.
+	 * @param shapes ints with the shapes of the sequence, first executed first (2 to MAX_LENGTH).
+	 * @return long with the number of times the sequence was executed.
+	 */
+	public long count(int... shapes)
+	{
+		return count(shapes, 0, 0);
+	}
+
+
+	/**
+	 * Adds the counts of every sequence that matches a pattern, from the given shape on.
+	 * @param shapes ints with the pattern of shapes.
+	 * @param index int with the first shape not yet fixed.
+	 * @param gram int with the n-gram of the shapes before index.
+	 * @return long with the sum of the counts.
+	 */
+	private long count(int[] shapes, int index, int gram)
+	{
+		if (index == shapes.length)
+			return counts[FIRST[shapes.length] + gram];
+
+		if (shapes[index] == ANY_PUSH)
+			return count(shapes, index + 1, gram * 8 + PUSH_LITERAL) + count(shapes, index + 1, gram * 8 + PUSH_VARIABLE);
+
+		return count(shapes, index + 1, gram * 8 + shapes[index]);
+	}
+
+
+	/**
+	 * Returns the shapes of the n-gram at an index of the counts array.
+	 * @param index int with the index in the counts array.
+	 * @return String with the names of the shapes, separated by spaces.
+	 */
+	private static String describe(int index)
+	{
+		int length = MAX_LENGTH;
+		while (FIRST[length] > index)
+			length--;
+
+		StringBuilder text = new StringBuilder();
+		int gram = index - FIRST[length];
+		for (int i = length - 1; i >= 0; i--)
+		{
+			text.append(NAMES[(gram >> 3 * i) & 7]);
+			if (i > 0)
+				text.append(' ');
+		}
+		return text.toString();
+	}
+
+
+	/**
+	 * Returns the sequences executed the most times, each one with its count.
+	 * @param limit int with the maximum number of sequences.
+	 * @return Array of Strings with a count and the shapes of a sequence in each element.
+	 */
+	public String[] hottest(int limit)
+	{
+		ArrayList<Integer> indexes = new ArrayList<>();
+		for (int i = 0; i < COUNTS; i++)
+			if (counts[i] > 0)
+				indexes.add(i);
+
+		indexes.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+		String[] result = new String[Math.min(limit, indexes.size())];
+		for (int i = 0; i < result.length; i++)
+			result[i] = counts[indexes.get(i)] + " " + describe(indexes.get(i));
+		return result;
+	}
+
+
+	/**
+	 * Saves the profile to a text file.
+	 * @param filename String with the name of the file.
+	 * @throws IOException Handles the exceptions related to writing the file.
+	 */
+	public void save(String filename) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)))
+		{
+			out.println(HEADER);
+			out.println("total " + total);
+			for (int i = 0; i < COUNTS; i++)
+				if (counts[i] > 0)
+					out.println(counts[i] + " " + describe(i));
+		}
+	}
+
+
+	/**
+	 * Loads a profile saved by save(). If the file doesn't exist, the profile is empty.
+	 * @param filename String with the name of the file.
+	 * @return Profile with the counts of the file.
+	 * @throws IOException Handles the exceptions related to reading the file, or a file that is
+	 * not a valid profile.
+	 */
+	public static Profile load(String filename) throws IOException
+	{
+		Profile profile = new Profile();
+		Path file = Paths.get(filename);
+		if (!Files.exists(file))
+			return profile;
+
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			String line = in.readLine();
+			if (!HEADER.equals(line))
+				throw new IOException("Not a valid profile file: " + filename);
+
+			while ((line = in.readLine()) != null)
+			{
+				String[] words = line.trim().split("\\s+");
+				try
+				{
+					if (words[0].equals("total") && words.length == 2)
+						profile.total = Long.parseLong(words[1]);
+					else if (words.length >= 3 && words.length <= MAX_LENGTH + 1)
+					{
+						int gram = 0;
+						for (int i = 1; i < words.length; i++)
+						{
+							int shape = 0;
+							while (shape < NAMES.length && !NAMES[shape].equals(words[i]))
+								shape++;
+							if (shape == NAMES.length)
+								throw new IOException("Unknown shape " + words[i] + " in profile file: " + filename);
+							gram = gram * 8 + shape;
+						}
+						profile.counts[FIRST[words.length - 1] + gram] += Long.parseLong(words[0]);
+					}
+					else if (!line.trim().isEmpty())
+						throw new IOException("Invalid line in profile file " + filename + ": " + line);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Invalid count in profile file " + filename + ": " + line);
+				}
+			}
+		}
+
+		return profile;
+	}
+
+
+	/**
+	 * Returns whether or not loading a profile file with the given lines fails with an IOException.
+	 * @param file Path of the file to write.
+	 * @param lines Strings with the lines of the file.
+	 * @return Boolean value, true if load() rejects the file.
+	 * @throws IOException Handles the exceptions related to writing the file.
+	 */
+	private static boolean rejects(Path file, String... lines) throws IOException
+	{
+		Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+		try
+		{
+			load(file.toString());
+			return false;
+		}
+		catch (IOException e)
+		{
+			return true;
+		}
+	}
+
+
+	/**
+	 * Tests the class Profile with calls to its methods.
+	 * @throws IOException Handles the exceptions related to the profile file.
+	 */
+	private static void testMain() throws IOException
+	{
+		Profile profile = new Profile();
+		profile.record(PUSH_VARIABLE);
+		profile.record(PUSH_LITERAL);
+		profile.record(OPERATE);
+		profile.record(ASSIGN);
+		if (profile.getTotal() == 4 && profile.count(PUSH_VARIABLE, PUSH_LITERAL) == 1
+				&& profile.count(ANY_PUSH, ANY_PUSH, OPERATE) == 1 && profile.count(PUSH_LITERAL, PUSH_LITERAL, OPERATE) == 0
+				&& profile.count(PUSH_VARIABLE, PUSH_LITERAL, OPERATE, ASSIGN) == 1 && profile.count(ASSIGN, PUSH_VARIABLE) == 0)
+			System.out.println("Yay 1");
+
+		profile.restart();   // no sequence across programs
+		profile.record(PUSH_VARIABLE);
+		for (int i = 0; i < 6; i++)
+			profile.record(PUSH_LITERAL);
+		if (profile.count(ASSIGN, PUSH_VARIABLE) == 0 && profile.count(PUSH_LITERAL, PUSH_LITERAL) == 5
+				&& profile.count(PUSH_LITERAL, PUSH_LITERAL, PUSH_LITERAL, PUSH_LITERAL, PUSH_LITERAL) == 2
+				&& profile.count(PUSH_VARIABLE, PUSH_LITERAL, PUSH_LITERAL, PUSH_LITERAL, PUSH_LITERAL) == 1
+				&& profile.getTotal() == 11)
+			System.out.println("Yay 2");
+
+		Profile recorded = new Profile();
+		Computer computer = new Computer();
+		computer.setProfile(recorded);
+		computer.run(Program.compile(Computer.stringToNodeQueue("x 1 = x x 2 + =")));
+		if (recorded.getTotal() == 8 && recorded.count(PUSH_VARIABLE, PUSH_VARIABLE, PUSH_LITERAL, OPERATE, ASSIGN) == 1
+				&& recorded.count(PUSH_VARIABLE, ANY_PUSH, ASSIGN) == 1 && recorded.hottest(1)[0].startsWith("2 "))
+			System.out.println("Yay 3");
+
+		Path file = Files.createTempFile("profile", ".txt");
+		profile.save(file.toString());
+		Profile loaded = load(file.toString());
+		if (loaded.getTotal() == profile.getTotal() && Arrays.equals(loaded.hottest(100), profile.hottest(100))
+				&& loaded.count(PUSH_VARIABLE, PUSH_LITERAL, OPERATE, ASSIGN) == 1)
+			System.out.println("Yay 4");
+
+		if (rejects(file, "# postfix profile 0", "total 1")
+				&& rejects(file, HEADER, "3 PUSH_LITERAL POP")
+				&& rejects(file, HEADER, "many PUSH_LITERAL ASSIGN")
+				&& rejects(file, HEADER, "3 PUSH_LITERAL")
+				&& !rejects(file, HEADER, "total 7", "", "3 PUSH_LITERAL ASSIGN"))
+			System.out.println("Yay 5");
+
+		Files.delete(file);
+		if (load(file.toString()).getTotal() == 0)
+			System.out.println("Yay 6");   // a missing file is an empty profile
+	}
+
+
+	/**
+	 * Records the programs given, adding to the profile file (which is created if it doesn't exist),
+	 * or runs a program with the superinstructions chosen by the profile file, as described in the
+	 * class comment. Without arguments, it tests the class.
+	 * @param args Mode (record or run), the name of the profile file and the names of the programs.
+	 * @throws IOException Handles the exceptions related to the files.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			testMain();
+			return;
+		}
+
+		if (args.length < 3 || !(args[0].equals("record") || (args[0].equals("run") && args.length == 3)))
+		{
+			System.out.println("Usage: java Profile [record profile.txt program1.txt ... | run profile.txt program.txt]");
+			System.exit(0);
+		}
+
+		Profile profile = load(args[1]);
+
+		if (args[0].equals("run"))
+		{
+			Node<String> queue = Computer.fileToNodeQueue(args[2]);
+			Program program = Program.compile(queue).fuse(profile);
+			Computer.releaseQueue(queue);
+
+			ProgramError error = (new Computer()).run(program);
+			if (error != null)
+				System.out.println("Error: " + error);
+			System.out.println(program.countFused() + " superinstructions in " + program.length() + " instructions");
+			return;
+		}
+
+		Computer computer = new Computer();
+		computer.setProfile(profile);
+		for (int i = 2; i < args.length; i++)
+		{
+			Node<String> queue = Computer.fileToNodeQueue(args[i]);
+			Program program = Program.compile(queue);
+			Computer.releaseQueue(queue);
+
+			computer.reset();
+			profile.restart();
+			ProgramError error = computer.run(program);
+			if (error != null)
+				System.out.println(args[i] + ": " + error);
+		}
+		profile.save(args[1]);
+
+		System.out.println(profile.getTotal() + " instructions recorded, hottest sequences:");
+		for (String sequence : profile.hottest(10))
+			System.out.println(sequence);
+	}
+}
@@ -0,0 +1,621 @@
+import java.util.HashMap;
+
+/**
+ * This class holds a program compiled from its queue of symbols into arrays of instructions,
+ * which a Computer executes with execute(). Besides the symbols a queue can hold, a compiled
+ * program can use three control flow symbols, each one written after the name of a label:
+ * <pre>
+ * name label   marks the position of the next instruction with the label name
+ * name jmp     continues the execution at the label name
+ * name jz      pops a value and continues at the label name if it is 0
+ * </pre>
+ * For example, this program adds the numbers from 1 to 10 with a loop:
+ * <pre>
+ * s 0 = i 1 = top label s s i + = i i 1 + = 11 i - end jz top jmp end label s 0 + print
+ * </pre>
+ * Labels are resolved to instruction indexes when the program is compiled, so a jump is just
+ * an assignment to the program counter, and each distinct literal is parsed once (see
+ * ConstantPool), so every PUSH of a literal shares its Integer. The compilation also checks
+ * the program: every literal must fit in an int, every label must be defined once, and the
+ * program stack must have the same depth every time an instruction is reached (whatever path
+ * reached it) and enough elements for every instruction. The maximum depth of the stack is
+ * found on the way, so the Computer can reserve it before running.
+ * Variables are only checked when they are used, since a jump can skip an assignment.
+ *
+ * @author Sergio Delgado
+ */
+public class Program
+{
+	public static final int PUSH = 0;           // pushes operands[pc] (Integer value or String variable)
+	public static final int OPERATE = 1;        // pops two operands and pushes the result of operator arguments[pc]
+	public static final int ASSIGN = 2;         // pops a value and a variable and assigns the value
+	public static final int PRINT = 3;          // pops an element and prints it
+	public static final int JUMP = 4;           // continues at arguments[pc]
+	public static final int JUMP_IF_ZERO = 5;   // pops a value and continues at arguments[pc] if it is 0
+	public static final int OPERATE_UNARY = 6;  // pops one operand and pushes the result of operator arguments[pc]
+	public static final int ASSIGN_OPERATION = 7;   // superinstruction for "t a b op =" (see fuse())
+	public static final int PUSH_OPERATION = 8;     // superinstruction for "a b op"
+	public static final int OPERATE_WITH = 9;       // superinstruction for "a op"
+	public static final int ASSIGN_VALUE = 10;      // superinstruction for "t a ="
+
+	private static final String[] NAMES = {"PUSH", "OPERATE", "ASSIGN", "PRINT", "JUMP", "JUMP_IF_ZERO",
+			"OPERATE_UNARY", "ASSIGN_OPERATION", "PUSH_OPERATION", "OPERATE_WITH", "ASSIGN_VALUE"};
+	private static final int[] FUSED = {ASSIGN_OPERATION, PUSH_OPERATION, OPERATE_WITH, ASSIGN_VALUE};
+	private static final int[][] PATTERNS = {   // shapes (see Profile) each superinstruction replaces
+		{Profile.PUSH_VARIABLE, Profile.ANY_PUSH, Profile.ANY_PUSH, Profile.OPERATE, Profile.ASSIGN},
+		{Profile.ANY_PUSH, Profile.ANY_PUSH, Profile.OPERATE},
+		{Profile.ANY_PUSH, Profile.OPERATE},
+		{Profile.PUSH_VARIABLE, Profile.ANY_PUSH, Profile.ASSIGN}};
+	private static final double MIN_SHARE = 0.01;   // share of the dispatches a superinstruction must save to be used
+
+	int[] opcodes;      // instruction of each position
+	Object[] operands;  // value or variable pushed by each instruction
+	int[] arguments;    // instruction index each jump goes to, or code of each operator (see Operators)
+	int[] tokens;       // position in the queue of the symbol each instruction came from
+	String[] text;      // symbol each instruction came from (with the label for jumps)
+	int length;         // number of instructions
+
+	private int maxDepth;        // maximum depth of the program stack
+	private ProgramError error;  // error found while compiling (null if there is none)
+
+
+	/**
+	 * Constructor that creates an empty program with room for the given number of instructions.
+	 * @param capacity int with the number of instructions.
+	 */
+	private Program(int capacity)
+	{
+		opcodes = new int[capacity];
+		operands = new Object[capacity];
+		arguments = new int[capacity];
+		tokens = new int[capacity];
+		text = new String[capacity];
+		length = 0;
+	}
+
+
+	/**
+	 * Constructor that copies a program, sharing every array with it except the opcodes.
+	 * @param original Program to copy.
+	 */
+	private Program(Program original)
+	{
+		opcodes = original.opcodes.clone();
+		operands = original.operands;
+		arguments = original.arguments;
+		tokens = original.tokens;
+		text = original.text;
+		length = original.length;
+		maxDepth = original.maxDepth;
+		error = original.error;
+	}
+
+
+	/**
+	 * Returns the name of an opcode.
+	 * @param opcode int with one of the opcodes of this class.
+	 * @return String with its name.
+	 */
+	public static String name(int opcode)
+	{
+		return NAMES[opcode];
+	}
+
+
+	/**
+	 * Returns the number of instructions of the program.
+	 * @return int with the number of instructions.
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+
+	/**
+	 * Returns the maximum number of elements the program stack holds while the program runs.
+	 * @return int with the maximum depth of the stack.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+
+	/**
+	 * Returns the error found while compiling the program. A program with an error can't run.
+	 * @return ProgramError found, or null if the program is valid.
+	 */
+	public ProgramError getError()
+	{
+		return error;
+	}
+
+
+	/**
+	 * Returns a hash of the instructions of the program, their arguments and the symbols they
+	 * came from, so a Checkpoint can tell whether it was saved while running this same program.
+	 * @return long value with the hash.
+	 */
+	public long fingerprint()
+	{
+		long hash = length;
+		for (int pc = 0; pc < length; pc++)
+			hash = ((hash * 31 + opcodes[pc]) * 31 + arguments[pc]) * 31 + text[pc].hashCode();
+		return hash;
+	}
+
+
+	/**
+	 * Returns the position in the queue of the symbol an instruction came from.
+	 * @param pc int with the index of the instruction.
+	 * @return int with the position of the symbol.
+	 */
+	public int getToken(int pc)
+	{
+		return tokens[pc];
+	}
+
+
+	/**
+	 * Returns the symbol an instruction came from.
+	 * @param pc int with the index of the instruction.
+	 * @return String with the symbol (with the label before it for jumps).
+	 */
+	public String getText(int pc)
+	{
+		return text[pc];
+	}
+
+
+	/**
+	 * Adds an instruction at the end of the program.
+	 * @param opcode int with the instruction.
+	 * @param operand Object used by the instruction.
+	 * @param argument int used by the instruction (jump target or operator code).
+	 * @param token int with the position of the symbol the instruction came from.
+	 * @param symbol String with the symbol the instruction came from.
+	 */
+	private void add(int opcode, Object operand, int argument, int token, String symbol)
+	{
+		opcodes[length] = opcode;
+		operands[length] = operand;
+		arguments[length] = argument;
+		tokens[length] = token;
+		text[length] = symbol;
+		length++;
+	}
+
+
+	/**
+	 * Returns whether or not a symbol is a variable (or label) name.
+	 * @param symbol String with the symbol.
+	 * @return Boolean value, true if the symbol isn't a number, an operator, an assignment,
+	 * print or a control flow symbol.
+	 */
+	private static boolean isName(String symbol)
+	{
+		return !ConstantPool.isLiteral(symbol) && !symbol.equals("=") && Operators.lookup(symbol) < 0
+				&& !isControl(symbol) && !symbol.equals("print");
+	}
+
+
+	/**
+	 * Returns whether or not a symbol is one of the control flow symbols.
+	 * @param symbol String with the symbol.
+	 * @return Boolean value, true for label, jmp and jz.
+	 */
+	private static boolean isControl(String symbol)
+	{
+		return symbol.equals("label") || symbol.equals("jmp") || symbol.equals("jz");
+	}
+
+
+	/**
+	 * Compiles a queue of symbols into a program. If the program isn't valid, the Program
+	 * returned has an error (see getError()) and no instructions.
+	 * @param input Node that is the head of the program queue.
+	 * @return Program compiled.
+	 */
+	public static Program compile(Node<String> input)
+	{
+		int count = 0;
+		for (Node<String> current = input; current != null; current = current.getNext())
+			count++;
+
+		Program program = new Program(count);
+		HashMap<String,Integer> labels = new HashMap<>();
+		ConstantPool constants = new ConstantPool();   // one Integer for each distinct literal
+		int token = 0;
+
+		for (Node<String> current = input; current != null; current = current.getNext())
+		{
+			String symbol = current.getValue();
+			Node<String> next = current.getNext();
+
+			if (isName(symbol) && next != null && isControl(next.getValue()))   // name label, name jmp, name jz
+			{
+				String control = next.getValue();
+				token++;
+
+				if (control.equals("label"))
+				{
+					if (labels.put(symbol, program.length) != null)
+						return program.fail(ProgramError.INVALID_LABEL, token, symbol + " " + control);
+				}
+				else
+					program.add(control.equals("jmp") ? JUMP : JUMP_IF_ZERO, symbol, 0, token, symbol + " " + control);
+
+				current = next;
+			}
+			else if (isControl(symbol))   // a control flow symbol without a name before it
+				return program.fail(ProgramError.INVALID_LABEL, token, symbol);
+			else
+			{
+				int operator = Operators.lookup(symbol);   // resolved once, executed as an int code
+
+				if (ConstantPool.isLiteral(symbol))
+				{
+					if (!ConstantPool.isValid(symbol))
+						return program.fail(ProgramError.INVALID_LITERAL, token, symbol);
+					program.add(PUSH, constants.get(symbol), 0, token, symbol);
+				}
+				else switch (symbol.charAt(0))
+				{
+					case '=':
+						program.add(ASSIGN, null, 0, token, symbol);
+					break;
+
+					default:
+						if (operator >= 0)
+							program.add(Operators.arity(operator) == 2 ? OPERATE : OPERATE_UNARY, null, operator, token, symbol);
+						else if (symbol.equals("print"))
+							program.add(PRINT, null, 0, token, symbol);
+						else
+							program.add(PUSH, symbol, 0, token, symbol);
+				}
+			}
+
+			token++;
+		}
+
+		for (int pc = 0; pc < program.length; pc++)   // resolve the labels
+		{
+			if (program.opcodes[pc] == JUMP || program.opcodes[pc] == JUMP_IF_ZERO)
+			{
+				Integer target = labels.get((String)program.operands[pc]);
+				if (target == null)
+					return program.fail(ProgramError.INVALID_LABEL, program.tokens[pc], program.text[pc]);
+				program.arguments[pc] = target;
+			}
+		}
+
+		program.verify();
+		return program;
+	}
+
+
+	/**
+	 * Returns the shape of an instruction, which is what a Profile counts.
+	 * @param pc int with the index of the instruction.
+	 * @return int with one of the shapes of Profile (a superinstruction has the shape of its
+	 * first instruction, which is a push).
+	 */
+	public int shape(int pc)
+	{
+		switch (opcodes[pc])
+		{
+			case OPERATE:        return Profile.OPERATE;
+			case OPERATE_UNARY:  return Profile.OPERATE_UNARY;
+			case ASSIGN:         return Profile.ASSIGN;
+			case PRINT:          return Profile.PRINT;
+			case JUMP:           return Profile.JUMP;
+			case JUMP_IF_ZERO:   return Profile.JUMP_IF_ZERO;
+			default:             return operands[pc] instanceof Integer ? Profile.PUSH_LITERAL : Profile.PUSH_VARIABLE;
+		}
+	}
+
+
+	/**
+	 * Returns whether or not the instructions from pc on have the shapes of a pattern, and none of
+	 * them but the first is the target of a jump.
+	 * @param shapes Array of ints with the shape of each instruction.
+	 * @param targets Array of Booleans with whether or not each instruction is the target of a jump.
+	 * @param pc int with the index of the first instruction.
+	 * @param pattern Array of ints with the shapes of the pattern (ANY_PUSH matches both pushes).
+	 * @return Boolean value, true if the instructions can be replaced by the superinstruction.
+	 */
+	private boolean matches(int[] shapes, boolean[] targets, int pc, int[] pattern)
+	{
+		if (pc + pattern.length > length)
+			return false;
+
+		for (int i = 0; i < pattern.length; i++)
+		{
+			int shape = shapes[pc + i];
+			if (i > 0 && targets[pc + i])
+				return false;
+			if (pattern[i] == Profile.ANY_PUSH ? shape != Profile.PUSH_LITERAL && shape != Profile.PUSH_VARIABLE
+					: shape != pattern[i])
+				return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns a copy of this program where the sequences of instructions the profile shows to be
+	 * frequent are replaced with superinstructions, which do the work of the whole sequence in a
+	 * single dispatch and without pushing the intermediate values:
+	 * <pre>
+	 * ASSIGN_OPERATION   t a b op =   assigns to t the result of op on b and a
+	 * PUSH_OPERATION     a b op       pushes the result of op on b and a
+	 * OPERATE_WITH       a op         pops a value and pushes the result of op on a and it
+	 * ASSIGN_VALUE       t a =        assigns a to t
+	 * </pre>
+	 * (a and b are literals or variables). A superinstruction is used only if the sequences it
+	 * replaces saved at least 1% of the dispatches of the profile, and the ones that save the most
+	 * are tried first at each instruction. Only the opcode of the first instruction of a sequence
+	 * changes: the superinstruction reads the operands of the next instructions and then jumps
+	 * over them, so no instruction moves and every jump target stays valid. A sequence that has a
+	 * jump target after its first instruction is not replaced.
+	 * @param profile Profile recorded running unfused programs.
+	 * @return Program with the superinstructions (this program is not changed).
+	 */
+	public Program fuse(Profile profile)
+	{
+		Program fused = new Program(this);
+		if (error != null || profile.getTotal() == 0)
+			return fused;
+
+		int[] chosen = new int[FUSED.length];   // superinstructions used, the ones that save the most first
+		long[] savings = new long[FUSED.length];
+		int count = 0;
+
+		for (int i = 0; i < FUSED.length; i++)
+		{
+			savings[i] = profile.count(PATTERNS[i]) * (PATTERNS[i].length - 1);
+			if (savings[i] >= MIN_SHARE * profile.getTotal())
+			{
+				int j = count++;
+				while (j > 0 && savings[chosen[j - 1]] < savings[i])
+				{
+					chosen[j] = chosen[j - 1];
+					j--;
+				}
+				chosen[j] = i;
+			}
+		}
+
+		int[] shapes = new int[length];
+		boolean[] targets = new boolean[length];
+		for (int pc = 0; pc < length; pc++)
+		{
+			shapes[pc] = shape(pc);
+			if ((opcodes[pc] == JUMP || opcodes[pc] == JUMP_IF_ZERO) && arguments[pc] < length)
+				targets[arguments[pc]] = true;
+		}
+
+		int pc = 0;
+		while (pc < length)
+		{
+			int span = 1;
+			for (int i = 0; i < count; i++)
+			{
+				if (matches(shapes, targets, pc, PATTERNS[chosen[i]]))
+				{
+					fused.opcodes[pc] = FUSED[chosen[i]];
+					span = PATTERNS[chosen[i]].length;
+					break;
+				}
+			}
+			pc += span;
+		}
+
+		return fused;
+	}
+
+
+	/**
+	 * Returns the number of superinstructions of the program.
+	 * @return int with the number of instructions replaced by fuse().
+	 */
+	public int countFused()
+	{
+		int count = 0;
+		for (int pc = 0; pc < length; pc++)
+			if (opcodes[pc] >= ASSIGN_OPERATION)
+				count++;
+		return count;
+	}
+
+
+	/**
+	 * Records a compilation error and removes every instruction, so the program can't run.
+	 * @param code int with the error code.
+	 * @param token int with the position of the symbol that caused the error.
+	 * @param symbol String with the symbol that caused the error.
+	 * @return this Program.
+	 */
+	private Program fail(int code, int token, String symbol)
+	{
+		error = new ProgramError(code, token, symbol);
+		length = 0;
+		return this;
+	}
+
+
+	/**
+	 * Follows every path of the program, starting with an empty stack, recording the depth of the
+	 * stack before each instruction. Fails if an instruction needs more elements than the stack
+	 * has, or if two paths reach an instruction with different depths.
+	 */
+	private void verify()
+	{
+		int[] depths = new int[length];   // depth before each instruction, -1 if not reached yet
+		int[] pending = new int[length];  // instructions whose successors haven't been visited
+		int waiting = 0;
+
+		for (int pc = 0; pc < length; pc++)
+			depths[pc] = -1;
+
+		maxDepth = 0;
+		if (length == 0)
+			return;
+
+		depths[0] = 0;
+		pending[waiting++] = 0;
+
+		while (waiting > 0)
+		{
+			int pc = pending[--waiting];
+
+			int depth = depths[pc];
+			int needed = 0;
+			int after = depth;
+			int target = -1;
+
+			switch (opcodes[pc])
+			{
+				case PUSH:          after = depth + 1; break;
+				case OPERATE:       needed = 2; after = depth - 1; break;
+				case OPERATE_UNARY: needed = 1; break;
+				case ASSIGN:        needed = 2; after = depth - 2; break;
+				case PRINT:         needed = 1; after = depth - 1; break;
+				case JUMP_IF_ZERO:  needed = 1; after = depth - 1; target = arguments[pc]; break;
+				case JUMP:          target = arguments[pc]; break;
+			}
+
+			if (depth < needed)
+			{
+				fail(ProgramError.STACK_UNDERFLOW, tokens[pc], text[pc]);
+				return;
+			}
+
+			maxDepth = Math.max(maxDepth, after);
+			int[] successors = {opcodes[pc] == JUMP ? -1 : pc + 1, target};
+
+			for (int successor : successors)
+			{
+				if (successor < 0 || successor == length)   // no successor, or the end of the program
+					continue;
+
+				if (depths[successor] == -1)
+				{
+					depths[successor] = after;
+					pending[waiting++] = successor;
+				}
+				else if (depths[successor] != after)
+				{
+					fail(ProgramError.STACK_MISMATCH, tokens[successor], text[successor]);
+					return;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns whether or not compiling a program fails with the given error at the given position.
+	 * @param program String with the symbols of the program.
+	 * @param code int with the error code expected.
+	 * @param position long value with the position expected.
+	 * @return Boolean value, true if the error found has that code and position.
+	 */
+	private static boolean fails(String program, int code, long position)
+	{
+		ProgramError error = compile(Computer.stringToNodeQueue(program)).getError();
+		return error != null && error.getCode() == code && error.getPosition() == position;
+	}
+
+
+	/**
+	 * Compiles and runs a program on a new Computer, and returns the value of a variable.
+	 * @param program String with the symbols of the program.
+	 * @param variable String with the name of the variable.
+	 * @return Integer value of the variable after the run, or null if the run failed.
+	 */
+	private static Integer valueAfter(String program, String variable)
+	{
+		Computer computer = new Computer();
+		if (computer.run(compile(Computer.stringToNodeQueue(program))) != null)
+			return null;
+		return computer.symbols.get(variable);
+	}
+
+
+	/**
+	 * Tests the class Program with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		Program sum = compile(Computer.stringToNodeQueue(
+				"s 0 = i 1 = top label s s i + = i i 1 + = 11 i - end jz top jmp end label"));
+		if (sum.getError() == null && sum.getMaxDepth() == 3
+				&& valueAfter("s 0 = i 1 = top label s s i + = i i 1 + = 11 i - end jz top jmp end label", "s") == 55)
+			System.out.println("Yay 1");   // backward jump
+
+		if (valueAfter("x 0 = x skip jz x 5 = skip label", "x") == 0      // jz on zero jumps
+				&& valueAfter("x 1 = x skip jz x 5 = skip label", "x") == 5)   // jz on non-zero falls through
+			System.out.println("Yay 2");
+
+		if (fails("x 1 = nowhere jmp", ProgramError.INVALID_LABEL, 4)
+				&& fails("a label 1 print a label", ProgramError.INVALID_LABEL, 5)
+				&& fails("1 jz", ProgramError.INVALID_LABEL, 1)
+				&& fails("label", ProgramError.INVALID_LABEL, 0))
+			System.out.println("Yay 3");
+
+		if (fails("1 2 3 top label print top jmp", ProgramError.STACK_MISMATCH, 5)   // one element less every loop
+				&& fails("x 0 = x skip jz 5 skip label 1 print", ProgramError.STACK_MISMATCH, 9)
+				&& fails("1 +", ProgramError.STACK_UNDERFLOW, 1)
+				&& fails("top label top jz", ProgramError.STACK_UNDERFLOW, 3))
+			System.out.println("Yay 4");
+
+		if (fails("x 99999999999 =", ProgramError.INVALID_LITERAL, 1)
+				&& compile(Computer.stringToNodeQueue("x 1 = x skip jz 5 print skip label")).getError() == null)
+			System.out.println("Yay 5");
+
+		Computer computer = new Computer();
+		ProgramError error = computer.run(compile(Computer.stringToNodeQueue("y 5 /")));
+		if (error != null && error.getCode() == ProgramError.UNDEFINED_VARIABLE && error.getPosition() == 2)
+			System.out.println("Yay 6");   // same error as running the queue
+
+		Profile profile = new Profile();
+		computer = new Computer();
+		computer.setProfile(profile);
+		computer.run(compile(Computer.stringToNodeQueue("x 1 = y 2 = z x y / = z x 5 / = z 4 x - =")));
+		boolean same = true;
+		for (String program : new String[] {"x y 5 / =", "y 5 /", "1 y /"})   // one of each superinstruction
+		{
+			Program fused = compile(Computer.stringToNodeQueue(program)).fuse(profile);
+			error = (new Computer()).run(fused);
+			same = same && fused.countFused() == 1 && error != null && error.getCode() == ProgramError.UNDEFINED_VARIABLE
+					&& error.toString().equals((new Computer()).run(Computer.stringToNodeQueue(program)).toString());
+		}
+		if (same)
+			System.out.println("Yay 7");
+
+		Computer compiledComputer = new Computer();
+		Computer queueComputer = new Computer();
+		error = compiledComputer.run(compile(Computer.stringToNodeQueue("x y =")));
+		ProgramError queueError = queueComputer.run(Computer.stringToNodeQueue("x y ="));
+		if (error != null && error.toString().equals(queueError.toString()) && compiledComputer.symbols.get("x") == null
+				&& compiledComputer.symbols.toString().equals(queueComputer.symbols.toString()))
+			System.out.println("Yay 8");   // nothing is assigned from an undefined variable
+
+		same = true;
+		for (String program : new String[] {"x y 5 / =", "x 0 5 / =", "y 5 /", "1 y /"})
+		{
+			Program unfused = compile(Computer.stringToNodeQueue(program));
+			Program fused = unfused.fuse(profile);
+			compiledComputer = new Computer();
+			computer = new Computer();
+			same = same && fused.countFused() == 1
+					&& computer.run(fused).toString().equals(compiledComputer.run(unfused).toString())
+					&& computer.progStack.toString().equals(compiledComputer.progStack.toString());
+		}
+		if (same)
+			System.out.println("Yay 9");   // a superinstruction that stops leaves the stack of the instructions it replaces
+	}
+}
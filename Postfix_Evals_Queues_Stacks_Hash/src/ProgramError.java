@@ -0,0 +1,94 @@
+/**
+ * This class describes an error found in a program, either by the ProgramValidator before the
+ * program runs or by the Computer while it runs: an error code and the position (offset in the
+ * program queue) and value of the symbol that caused it. Errors are returned instead of thrown,
+ * so a bad program in a batch doesn't cost an exception.
+ *
+ * @author Sergio Delgado
+ */
+public class ProgramError
+{
+	public static final int STACK_UNDERFLOW = 1;      // a symbol needs more values than the stack has
+	public static final int UNDEFINED_VARIABLE = 2;   // a variable is used before a value is assigned to it
+	public static final int DIVISION_BY_ZERO = 3;     // the divisor of a division is 0
+	public static final int INVALID_ASSIGNMENT = 4;   // the target of an assignment is not a variable
+	public static final int INVALID_LABEL = 5;        // a label is undefined, defined twice or has no name
+	public static final int STACK_MISMATCH = 6;       // paths reach a symbol with different stack depths
+	public static final int NEEDS_COMPILING = 7;      // a control flow symbol in a queue (see Program)
+	public static final int INVALID_LITERAL = 8;      // a number with other characters or that doesn't fit in an int
+
+	private static final String[] NAMES = {"", "STACK_UNDERFLOW", "UNDEFINED_VARIABLE",
+			"DIVISION_BY_ZERO", "INVALID_ASSIGNMENT", "INVALID_LABEL", "STACK_MISMATCH", "NEEDS_COMPILING",
+			"INVALID_LITERAL"};
+
+	private int code;
+	private long position;
+	private String symbol;
+
+	/**
+	 * Constructor that receives the error code and the symbol that caused the error.
+	 * @param code int with one of the error codes of this class.
+	 * @param position long value with the offset of the symbol in the program.
+	 * @param symbol String value of the symbol.
+	 */
+	public ProgramError(int code, long position, String symbol)
+	{
+		this.code = code;
+		this.position = position;
+		this.symbol = symbol;
+	}
+
+	/**
+	 * Returns the error code.
+	 * @return int with one of the error codes of this class.
+	 */
+	public int getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * Returns the position of the symbol that caused the error.
+	 * @return long value with the offset of the symbol in the program.
+	 */
+	public long getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * Returns the symbol that caused the error.
+	 * @return String value of the symbol.
+	 */
+	public String getSymbol()
+	{
+		return symbol;
+	}
+
+	/**
+	 * Override of the Object.toString() method that suits this particular class.
+	 * @return String with the name of the error code, the position and the symbol.
+	 */
+	public String toString()
+	{
+		return NAMES[code] + " at " + position + " (" + symbol + ")";
+	}
+
+	/**
+	 * Tests the class ProgramError with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		ProgramError error = new ProgramError(DIVISION_BY_ZERO, 12, "/");
+		if (error.getCode() == 3 && error.getPosition() == 12 && error.getSymbol().equals("/")
+				&& error.toString().equals("DIVISION_BY_ZERO at 12 (/)"))
+			System.out.println("Yay 1");
+
+		boolean named = true;
+		for (int code = STACK_UNDERFLOW; code <= INVALID_LITERAL; code++)
+			named = named && !new ProgramError(code, 0, "x").toString().startsWith(" ");
+		if (named && new ProgramError(INVALID_LITERAL, 0, "1x").toString().equals("INVALID_LITERAL at 0 (1x)"))
+			System.out.println("Yay 2");
+	}
+}
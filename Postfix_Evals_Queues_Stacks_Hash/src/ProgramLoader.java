@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class turns the text of a program into the queue of nodes a Computer processes, using
+ * as little memory as possible for each symbol:
+ * <ul>
+ * <li>The text is split at whitespace by hand, without Scanner and its regular expressions.</li>
+ * <li>Equal symbols share a single String: the characters of each symbol are looked up in a
+ * table of the symbols already seen, so a String is only created the first time a symbol
+ * appears. A program that repeats a few variable names and numbers needs one Node per
+ * symbol and almost no Strings.</li>
+ * <li>Nodes are taken from a pool of nodes released by programs that already ran, and the
+ * queue is linked only forward (prev is not used while a program runs).</li>
+ * </ul>
+ * Each thread has its own loader (see forThread()), so the table of symbols and the pool of
+ * nodes are reused by every program loaded in that thread without any locking.
+ *
+ * @author Sergio Delgado
+ */
+public class ProgramLoader
+{
+	private static final int MAX_SYMBOLS = 1 << 16;   // distinct symbols remembered before the table is emptied
+	private static final int MAX_POOLED = 1 << 18;    // nodes kept in the pool
+
+	private static final ThreadLocal<ProgramLoader> LOADERS = ThreadLocal.withInitial(ProgramLoader::new);
+
+	private String[] symbols;   // open addressing table of the distinct symbols seen
+	private int[] hashes;       // hash of each symbol of the table
+	private int distinct;       // number of symbols in the table
+	private char[] chunk;       // characters read from the input
+	private char[] token;       // characters of the symbol being read
+	private Node<String> free;  // first node of the pool (linked through next)
+	private int pooled;         // number of nodes in the pool
+	private Node<String> head;  // first node of the queue being loaded
+	private Node<String> tail;  // last node of the queue being loaded
+
+
+	/**
+	 * Constructor that creates an empty table of symbols and an empty pool of nodes.
+	 */
+	private ProgramLoader()
+	{
+		symbols = new String[1024];
+		hashes = new int[1024];
+		chunk = new char[8192];
+		token = new char[64];
+	}
+
+
+	/**
+	 * Returns the loader of the current thread.
+	 * @return ProgramLoader of this thread.
+	 */
+	public static ProgramLoader forThread()
+	{
+		return LOADERS.get();
+	}
+
+
+	/**
+	 * Returns the String of the symbol in the token buffer, creating it only if the symbol
+	 * hasn't been seen before. Uses linear probing over a table that doubles when half full.
+	 * @param length int with the number of characters of the symbol.
+	 * @return String with the characters of the symbol.
+	 */
+	private String intern(int length)
+	{
+		int hash = 0;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + token[i];
+
+		int mask = symbols.length - 1;
+		int index = hash & mask;
+
+		while (symbols[index] != null)
+		{
+			String symbol = symbols[index];
+			if (hashes[index] == hash && symbol.length() == length)
+			{
+				int i = 0;
+				while (i < length && symbol.charAt(i) == token[i])
+					i++;
+				if (i == length)
+					return symbol;
+			}
+			index = (index + 1) & mask;
+		}
+
+		String symbol = new String(token, 0, length);
+
+		if (distinct >= MAX_SYMBOLS)   // too many different symbols, start again
+		{
+			symbols = new String[1024];
+			hashes = new int[1024];
+			distinct = 0;
+			return symbol;
+		}
+
+		symbols[index] = symbol;
+		hashes[index] = hash;
+		distinct++;
+
+		if (distinct * 2 > symbols.length)
+			grow();
+
+		return symbol;
+	}
+
+
+	/**
+	 * Doubles the table of symbols, placing again every symbol.
+	 */
+	private void grow()
+	{
+		String[] oldSymbols = symbols;
+		int[] oldHashes = hashes;
+		symbols = new String[oldSymbols.length * 2];
+		hashes = new int[oldSymbols.length * 2];
+		int mask = symbols.length - 1;
+
+		for (int i = 0; i < oldSymbols.length; i++)
+		{
+			if (oldSymbols[i] != null)
+			{
+				int index = oldHashes[i] & mask;
+				while (symbols[index] != null)
+					index = (index + 1) & mask;
+				symbols[index] = oldSymbols[i];
+				hashes[index] = oldHashes[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a node holding the given value, taken from the pool if it isn't empty.
+	 * @param value String value of the node.
+	 * @return Node with the value and no links.
+	 */
+	private Node<String> newNode(String value)
+	{
+		Node<String> node = free;
+
+		if (node == null)
+			return new Node<String>(value);
+
+		free = node.getNext();
+		pooled--;
+		node.setNext(null);
+		node.setValue(value);
+		return node;
+	}
+
+
+	/**
+	 * Adds a node with the symbol in the token buffer at the end of the queue being loaded.
+	 * @param length int with the number of characters of the symbol.
+	 */
+	private void enqueue(int length)
+	{
+		Node<String> word = newNode(intern(length));
+
+		if (head == null)
+			head = word;
+		else
+			tail.setNext(word);
+		tail = word;
+	}
+
+
+	/**
+	 * Reads the symbols of a program, which are separated by whitespace, and creates the queue
+	 * of nodes that holds them.
+	 * @param in Reader with the text of the program (it isn't closed).
+	 * @return Node of the String type that points to the head of the queue (null if the program
+	 * has no symbols).
+	 * @throws IOException Handles the exceptions related to reading the input.
+	 */
+	public Node<String> load(Reader in) throws IOException
+	{
+		int length = 0;   // characters of the current symbol
+		int read;
+		head = null;
+		tail = null;
+
+		while ((read = in.read(chunk)) >= 0)
+		{
+			for (int i = 0; i < read; i++)
+			{
+				char c = chunk[i];
+
+				if (!Character.isWhitespace(c))
+				{
+					if (length == token.length)
+					{
+						char[] bigger = new char[token.length * 2];
+						System.arraycopy(token, 0, bigger, 0, length);
+						token = bigger;
+					}
+					token[length] = c;
+					length++;
+				}
+				else if (length > 0)   // end of a symbol
+				{
+					enqueue(length);
+					length = 0;
+				}
+			}
+		}
+
+		if (length > 0)   // the end of the input also ends the last symbol
+			enqueue(length);
+
+		Node<String> queue = head;
+		head = null;
+		tail = null;
+		return queue;
+	}
+
+
+	/**
+	 * Gives back to the pool the nodes of a queue that is no longer used, so the next programs
+	 * loaded by this thread reuse them. The nodes must not be used after this call.
+	 * @param head Node that is the head of the queue to release.
+	 */
+	public void release(Node<String> head)
+	{
+		Node<String> current = head;
+
+		while (current != null && pooled < MAX_POOLED)
+		{
+			Node<String> next = current.getNext();
+			current.setValue(null);
+			current.setPrev(null);
+			current.setNext(free);
+			free = current;
+			pooled++;
+			current = next;
+		}
+	}
+}
@@ -2,83 +2,102 @@ import java.util.Iterator;
 
 /**
  * This class will provide all the basic methods to handle operations on a stack data
- * structure which will utilize doubly linked nodes.
+ * structure which will keep its elements in an array. The array grows when it is full,
+ * but it can also be reserved with the exact capacity a program needs (see ensureCapacity),
+ * so pushing never has to grow it while the program runs.
  * 
  * @author Sergio Delgado
  *
- * @param <T> Generic type that will be used to define the type of value the nodes of the
+ * @param <T> Generic type that will be used to define the type of value the elements of the
  * stack will hold.
  */
 public class ProgramStack<T> implements Iterable<T> 
 {
-	private Node<T>topOfStack;
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	private Object[] items;   // elements of the stack, the bottom of the stack is element 0
 	private int size;
 	
 	/**
-	 * Constructor that will initialize the pointer to top of the stack to null, and the
-	 * size of the stack (number of elements in the stack) to 0;
+	 * Constructor that will create an empty stack with a default capacity.
 	 */
 	public ProgramStack()
 	{
-		topOfStack = null;
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Constructor that will create an empty stack able to hold the given number of elements
+	 * before it needs to grow.
+	 * @param capacity int with the initial capacity of the stack.
+	 */
+	public ProgramStack(int capacity)
+	{
+		items = new Object[Math.max(1, capacity)];
 		size = 0;
 	}
 	
 	/**
-	 * Inserts a new element into the stack at the top of it. This stack class defines
-	 * next as the next node towards bottom of stack and prev as next node towards the top
-	 * of the stack. Complexity O(1).
+	 * Makes sure the stack can hold the given number of elements without growing. A program
+	 * whose maximum stack depth is known (see ProgramValidator) reserves it before it runs.
+	 * Complexity O(n) if the array has to be replaced, O(1) otherwise.
+	 * @param capacity int with the number of elements the stack must be able to hold.
+	 */
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity > items.length)
+		{
+			Object[] bigger = new Object[capacity];
+			System.arraycopy(items, 0, bigger, 0, size);
+			items = bigger;
+		}
+	}
+	
+	/**
+	 * Inserts a new element into the stack at the top of it. Complexity O(1) (amortized O(1)
+	 * when the array has to grow).
 	 * @param item Generic type value of the new element that will be pushed into stack.
 	 */
 	public void push(T item)
 	{
-		Node<T> newItem = new Node<T>(item);
-				
-		if (topOfStack != null)           // If the stack is empty...
-			topOfStack.setPrev(newItem);
+		if (size == items.length)           // if the array is full...
+			ensureCapacity(size * 2);
 
-		newItem.setNext(topOfStack);
-		newItem.setPrev(null);
-		topOfStack = newItem;
+		items[size] = item;
 		size++;
 	}
 	
 	/**
-	 * Pops an item off the stack
-	 * This stack class defines next as the next node towards bottom of stack
-	 * and prev as next node towards the top of the stack. Complexity O(1).
-	 * @return Generic type value which was held by the node removed. It returns
+	 * Pops an item off the stack. Complexity O(1).
+	 * @return Generic type value which was held by the element removed. It returns
 	 * null if there are no items in the stack.
 	 */
+	@SuppressWarnings("unchecked")
 	public T pop() 
 	{
 		T removed = null;	
 		// if the stack is not empty
-		if (topOfStack != null)
+		if (size > 0)
 		{
-			removed = topOfStack.getValue();
-			
-			topOfStack = topOfStack.getNext(); // move the top of stack towards the bottom
-			size--;                            //
-			
-			// if there is still items left in the stack
-			if (topOfStack != null) 
-				topOfStack.setPrev(null);
+			size--;
+			removed = (T)items[size];
+			items[size] = null;               // don't keep a reference to the removed element
 		}
 		return removed;
 	}
 	
 	/**
 	 * Returns the element at the top of the stack (but doesn't remove it). Complexity O(1).
-	 * @return Generic type value held by the node at top of stack. It returns null
+	 * @return Generic type value held by the element at top of stack. It returns null
 	 * if there are no elements on the stack.
 	 */
+	@SuppressWarnings("unchecked")
 	public T peek()
 	{
 		T removed = null;		
-		if (topOfStack != null)
+		if (size > 0)
 		{
-			removed = topOfStack.getValue();
+			removed = (T)items[size - 1];
 		}
 		return removed;		
 	}
@@ -91,22 +110,25 @@ public class ProgramStack<T> implements Iterable<T>
 	 */
 	public String toString() 
 	{
-		String result = "";
+		StringBuilder result = new StringBuilder();
 		
-		// since listToStringBackward does not check for top of stack being null
-		// we call the method only if top of stack is not null
-		if (topOfStack != null)
-			result = Node.listToStringBackward(topOfStack);
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0)
+				result.append(' ');
+			result.append(items[i]);
+		}
 
-		return result;
+		return result.toString();
 	}
 	
 	/**
-	 * Removes everything from the stack. Complexity O(1).
+	 * Removes everything from the stack, keeping its capacity. Complexity O(n).
 	 */
 	public void clear() 
 	{
-		topOfStack = null;
+		for (int i = 0; i < size; i++)
+			items[i] = null;
 		size = 0;
 	}
 
@@ -119,6 +141,15 @@ public class ProgramStack<T> implements Iterable<T>
 		return size;
 	}
 
+	/**
+	 * Returns the number of items the stack can hold before it has to grow. Complexity O(1).
+	 * @return int value with the capacity of the stack.
+	 */
+	public int getCapacity() 
+	{
+		return items.length;
+	}
+
 	/**
 	 * Returns whether or not the stack is empty. Complexity O(1).
 	 * @return Boolean value that indicates if the stack is empty.
@@ -138,19 +169,12 @@ public class ProgramStack<T> implements Iterable<T>
 	 * @return Object array type which holds in each element of the array, a representation of an 
 	 * element of the stack.
 	 */
-	@SuppressWarnings("unchecked")
 	public Object[] toArray() 
 	{
-		T[] array = (T[]) new Object[size];
-		int i=0;
-		Node<T> current = topOfStack;
+		Object[] array = new Object[size];
 		
-		while (current != null)
-		{
-			array[i] = current.getValue();
-			current = current.getNext();
-			i++;
-		}
+		for (int i = 0; i < size; i++)
+			array[i] = items[size - 1 - i];
 		
 		return array;
 	}
@@ -170,7 +194,7 @@ public class ProgramStack<T> implements Iterable<T>
 		 */
 		return new Iterator<T>()
 		{
-			Node<T> current = topOfStack;   // pointer to the top of the stack.
+			int current = size - 1;   // index of the top of the stack.
 			
 			/**
 			 * Returns true if the stack has a next element.
@@ -178,20 +202,21 @@ public class ProgramStack<T> implements Iterable<T>
 			 */
 			public boolean hasNext()
 			{
-				return (current != null);
+				return (current >= 0);
 			}
 	
 			/**
-			 * Returns value held by the next node on the stack.
-			 * @return T Generic type value held by the next node on the stack.	
+			 * Returns value held by the next element on the stack.
+			 * @return T Generic type value held by the next element on the stack.	
 			 */
+			@SuppressWarnings("unchecked")
 			public T next()
 			{
-				if (current == null)
+				if (current < 0)
 					throw new NullPointerException("There was no next item on stack");
 				
-				T value =  current.getValue();
-				current = current.getNext();
+				T value = (T)items[current];
+				current--;
 				return value;
 			}
 		};
@@ -257,5 +282,13 @@ public class ProgramStack<T> implements Iterable<T>
 			i++;
 		}
 		
+		ProgramStack<Integer> s4 = new ProgramStack<>(2);
+		s4.ensureCapacity(5);
+		for(int j = 1; j <= 5; j++)
+			s4.push(j);
+		if(s4.getCapacity() == 5 && s4.size() == 5 && s4.toString().equals("1 2 3 4 5") && s4.pop().equals(5)) {
+			System.out.println("Yay 10");
+		}
+		
 	}
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+import java.util.HashSet;
+
+/**
+ * This class checks a program before it runs, in a single pass over its queue of symbols that
+ * follows what the Computer would do with the program stack without computing any value: it
+ * checks that every symbol finds on the stack the values it needs, that every number fits in an
+ * int, that the target of every assignment is a variable and that every variable used as an
+ * operand was assigned before.
+ * Control flow symbols can only be run from a compiled Program, so they are rejected here.
+ * A program that passes can only fail at run time with a division by zero, so the Computer
+ * doesn't need to check anything else for each symbol. Since the stack effect of every symbol
+ * is known (a number or a variable pushes one element, an operator pops its operands and pushes one,
+ * an assignment pops two and print pops one), the same pass also finds the maximum depth the
+ * stack reaches, so the Computer can reserve exactly that capacity before running the program.
+ *
+ * @author Sergio Delgado
+ */
+public class ProgramValidator
+{
+	private SymbolTable<Integer> symbols;   // variables defined before the program starts
+	private MappedSymbolTable imports;      // variables imported from a file (null if none)
+	private HashSet<String> assigned;       // variables assigned by the program so far
+	private String[] stack;                 // simulated stack: variable name, or null for a value
+	private int depth;                      // number of elements in the simulated stack
+	private int maxDepth;                   // maximum depth reached by the last program checked
+
+
+	/**
+	 * Constructor that receives the symbol table the program will run with, so the variables
+	 * already defined in it are accepted.
+	 * @param symbols SymbolTable with the variables defined before the program starts.
+	 */
+	public ProgramValidator(SymbolTable<Integer> symbols)
+	{
+		this(symbols, null);
+	}
+
+
+	/**
+	 * Constructor that receives the symbol table the program will run with and the variables it
+	 * imports, so the variables already defined in either of them are accepted.
+	 * @param symbols SymbolTable with the variables defined before the program starts.
+	 * @param imports MappedSymbolTable with the imported variables, or null if there are none.
+	 */
+	public ProgramValidator(SymbolTable<Integer> symbols, MappedSymbolTable imports)
+	{
+		this.symbols = symbols;
+		this.imports = imports;
+		assigned = new HashSet<>();
+		stack = new String[16];
+	}
+
+
+	/**
+	 * Pushes an element onto the simulated stack.
+	 * @param name String with the name of a variable, or null for a value.
+	 */
+	private void push(String name)
+	{
+		if (depth == stack.length)
+		{
+			String[] bigger = new String[stack.length * 2];
+			System.arraycopy(stack, 0, bigger, 0, depth);
+			stack = bigger;
+		}
+		stack[depth] = name;
+		depth++;
+		if (depth > maxDepth)
+			maxDepth = depth;
+	}
+
+
+	/**
+	 * Returns whether or not the element at the given depth of the simulated stack is a value,
+	 * or a variable with a value.
+	 * @param index int with the index of the element in the simulated stack.
+	 * @return Boolean value, false if it is a variable that wasn't assigned.
+	 */
+	private boolean isDefined(int index)
+	{
+		String name = stack[index];
+		return name == null || assigned.contains(name) || symbols.get(name) != null
+				|| (imports != null && imports.contains(name));
+	}
+
+
+	/**
+	 * Checks a program that will run on a program stack that already holds some elements.
+	 * @param input Node that is the head of the program queue.
+	 * @param initial ProgramStack the program will start with (it isn't modified).
+	 * @param firstPosition long value with the position of the first symbol of the queue.
+	 * @return ProgramError with the first error found, or null if the program is valid.
+	 */
+	public ProgramError validate(Node<String> input, ProgramStack<Object> initial, long firstPosition)
+	{
+		assigned.clear();
+		depth = 0;
+		maxDepth = 0;
+
+		Object[] elements = initial.toArray();   // top of the stack is element 0
+		for (int i = elements.length - 1; i >= 0; i--)
+			push(elements[i] instanceof Integer ? null : elements[i].toString());
+
+		long position = firstPosition;
+		for (Node<String> current = input; current != null; current = current.getNext())
+		{
+			String symbol = current.getValue();
+
+			if (ConstantPool.isLiteral(symbol))
+			{
+				if (!ConstantPool.isValid(symbol))
+					return new ProgramError(ProgramError.INVALID_LITERAL, position, symbol);
+				push(null);
+			}
+			else switch (symbol.charAt(0))
+			{
+				case '=':
+					if (depth < 2)
+						return new ProgramError(ProgramError.STACK_UNDERFLOW, position, symbol);
+					if (!isDefined(depth - 1))
+						return new ProgramError(ProgramError.UNDEFINED_VARIABLE, position, symbol);
+					if (stack[depth - 2] == null)
+						return new ProgramError(ProgramError.INVALID_ASSIGNMENT, position, symbol);
+					assigned.add(stack[depth - 2]);
+					depth -= 2;
+				break;
+
+				default:
+					int operator = Operators.lookup(symbol);
+					if (operator >= 0)
+					{
+						int arity = Operators.arity(operator);
+						if (depth < arity)
+							return new ProgramError(ProgramError.STACK_UNDERFLOW, position, symbol);
+						for (int i = 1; i <= arity; i++)
+							if (!isDefined(depth - i))
+								return new ProgramError(ProgramError.UNDEFINED_VARIABLE, position, symbol);
+						depth -= arity;
+						push(null);
+					}
+					else if (symbol.equals("label") || symbol.equals("jmp") || symbol.equals("jz"))
+						return new ProgramError(ProgramError.NEEDS_COMPILING, position, symbol);
+					else if (symbol.equals("print"))
+					{
+						if (depth < 1)
+							return new ProgramError(ProgramError.STACK_UNDERFLOW, position, symbol);
+						depth--;
+					}
+					else
+						push(symbol);
+			}
+
+			position++;
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Returns the maximum number of elements the program stack holds while the last program
+	 * checked runs (counting the elements it started with). It is only meaningful if the
+	 * program was valid.
+	 * @return int with the maximum depth of the stack.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+
+	/**
+	 * Checks a program that will run on an empty program stack.
+	 * @param input Node that is the head of the program queue.
+	 * @return ProgramError with the first error found, or null if the program is valid.
+	 */
+	public ProgramError validate(Node<String> input)
+	{
+		return validate(input, new ProgramStack<>(), 0);
+	}
+
+
+	/**
+	 * Returns whether or not checking a program finds the given error at the given position.
+	 * @param validator ProgramValidator that checks the program.
+	 * @param program String with the symbols of the program.
+	 * @param code int with the error code expected.
+	 * @param position long value with the position expected.
+	 * @return Boolean value, true if the error found has that code and position.
+	 */
+	private static boolean finds(ProgramValidator validator, String program, int code, long position)
+	{
+		ProgramError error = validator.validate(Computer.stringToNodeQueue(program));
+		return error != null && error.getCode() == code && error.getPosition() == position;
+	}
+
+
+	/**
+	 * Tests the class ProgramValidator with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		SymbolTable<Integer> symbols = new SymbolTable<>(5);
+		symbols.put("defined", 7);
+		ProgramValidator validator = new ProgramValidator(symbols);
+
+		if (validator.validate(Computer.stringToNodeQueue("x 1 2 3 + * = x defined - print")) == null
+				&& validator.getMaxDepth() == 4)
+			System.out.println("Yay 1");
+
+		if (finds(validator, "1 +", ProgramError.STACK_UNDERFLOW, 1)
+				&& finds(validator, "x =", ProgramError.STACK_UNDERFLOW, 1)
+				&& finds(validator, "1 print print", ProgramError.STACK_UNDERFLOW, 2)
+				&& validator.validate(Computer.stringToNodeQueue("5 neg neg neg")) == null)
+			System.out.println("Yay 2");
+
+		if (finds(validator, "x y =", ProgramError.UNDEFINED_VARIABLE, 2)
+				&& finds(validator, "1 y +", ProgramError.UNDEFINED_VARIABLE, 2)
+				&& finds(validator, "y neg", ProgramError.UNDEFINED_VARIABLE, 1)
+				&& validator.validate(Computer.stringToNodeQueue("y 1 = y neg defined +")) == null)
+			System.out.println("Yay 3");
+
+		if (finds(validator, "1 2 =", ProgramError.INVALID_ASSIGNMENT, 2)
+				&& finds(validator, "x 1 = x 2 + 3 =", ProgramError.INVALID_ASSIGNMENT, 7))
+			System.out.println("Yay 4");
+
+		if (finds(validator, "x 1 = top label", ProgramError.NEEDS_COMPILING, 4)
+				&& finds(validator, "top jmp", ProgramError.NEEDS_COMPILING, 1)
+				&& finds(validator, "1 end jz", ProgramError.NEEDS_COMPILING, 2))
+			System.out.println("Yay 5");
+
+		if (finds(validator, "x 12a =", ProgramError.INVALID_LITERAL, 1)
+				&& finds(validator, "1 2147483648 +", ProgramError.INVALID_LITERAL, 1)
+				&& validator.validate(Computer.stringToNodeQueue("x -2147483648 =")) == null)
+			System.out.println("Yay 6");
+
+		ProgramStack<Object> initial = new ProgramStack<>();
+		initial.push("z");
+		initial.push(3);
+		ProgramError error = validator.validate(Computer.stringToNodeQueue("= z print +"), initial, 10);
+		if (error != null && error.getCode() == ProgramError.STACK_UNDERFLOW && error.getPosition() == 13
+				&& error.getSymbol().equals("+") && initial.size() == 2)
+			System.out.println("Yay 7");
+	}
+}
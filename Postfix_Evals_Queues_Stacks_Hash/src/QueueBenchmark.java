@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Scanner;
+
+/**
+ * This class measures the memory used to load a program into a queue of nodes, comparing the
+ * original loader (a Scanner and a doubly linked queue with one String per symbol) with the
+ * ProgramLoader used by Computer.fileToNodeQueue, both the first time (empty pool of nodes) and
+ * after the queue of a previous program was released (warm pool). For each one it reports the
+ * bytes allocated while loading and the bytes the queue keeps alive, per symbol.
+ * Usage: java QueueBenchmark [symbols]
+ *
+ * @author Sergio Delgado
+ */
+public class QueueBenchmark
+{
+	/**
+	 * Original loader: a Scanner that creates a String per symbol and a doubly linked queue.
+	 * @param filename String that holds the name of the file to read from.
+	 * @return Node that is the head of the queue.
+	 * @throws IOException Handles the exceptions related to a file not found.
+	 */
+	private static Node<String> scannerQueue(String filename) throws IOException
+	{
+		Node<String> head = null;
+		Node<String> tail = null;
+
+		try (Scanner inFile = new Scanner(new File(filename)))
+		{
+			while (inFile.hasNext())
+			{
+				Node<String> word = new Node<String>(inFile.next());
+				if (head == null)
+					head = word;
+				if (tail != null)
+					tail.setNext(word);
+				word.setPrev(tail);
+				tail = word;
+			}
+		}
+
+		return head;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread.
+	 * @return long with the allocated bytes.
+	 */
+	private static long allocated()
+	{
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the heap in use after asking for a full garbage collection.
+	 * @return long with the bytes of heap in use.
+	 */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Prints one line of the report.
+	 * @param label String that names the loader.
+	 * @param symbols int with the number of symbols of the program.
+	 * @param allocatedBytes long with the bytes allocated while loading.
+	 * @param retainedBytes long with the bytes kept alive by the queue (negative if not measured).
+	 */
+	private static void report(String label, int symbols, long allocatedBytes, long retainedBytes)
+	{
+		System.out.printf("%-26s allocated %7.1f bytes/symbol", label, (double)allocatedBytes / symbols);
+		if (retainedBytes >= 0)
+			System.out.printf(", retained %6.1f bytes/symbol", (double)retainedBytes / symbols);
+		System.out.println();
+	}
+
+	/**
+	 * Writes a program of the given size to a temporary file and reports the memory used to load it.
+	 * The default size fits in the pool of nodes of a ProgramLoader, so the warm pool measurement
+	 * reuses every node.
+	 * @param args Optional number of symbols of the program (default 200000).
+	 * @throws IOException Handles the exceptions related to the temporary file.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		File file = File.createTempFile("program", ".txt");
+		file.deleteOnExit();
+
+		try (PrintWriter out = new PrintWriter(file))
+		{
+			int written = 0;
+			for (int i = 0; written < symbols; i++)   // "v0 v0 1 + =" style statements over 100 variables
+			{
+				out.print("v" + (i % 100) + " v" + (i % 100) + " " + (i % 10) + " + = ");
+				written += 5;
+			}
+		}
+
+		String name = file.getPath();
+		scannerQueue(name);                  // load the classes of both loaders before measuring
+		Computer.releaseQueue(Computer.fileToNodeQueue(name));
+		Computer.fileToNodeQueue(name);      // takes every node of the pool, so the next load starts cold
+
+		long base = usedHeap();
+		long start = allocated();
+		Node<String> queue = scannerQueue(name);
+		long allocatedBytes = allocated() - start;
+		report("Scanner, doubly linked", symbols, allocatedBytes, Math.max(0, usedHeap() - base));
+		queue = null;
+
+		base = usedHeap();
+		start = allocated();
+		queue = Computer.fileToNodeQueue(name);
+		allocatedBytes = allocated() - start;
+		report("ProgramLoader, empty pool", symbols, allocatedBytes, Math.max(0, usedHeap() - base));
+
+		Computer.releaseQueue(queue);
+		queue = null;
+		start = allocated();
+		queue = Computer.fileToNodeQueue(name);
+		allocatedBytes = allocated() - start;
+		report("ProgramLoader, warm pool", symbols, allocatedBytes, -1);
+		System.out.println("first symbol: " + queue.getValue());
+	}
+}
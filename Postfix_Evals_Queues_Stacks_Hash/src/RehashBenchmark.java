@@ -0,0 +1,103 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class measures how SymbolTable loads and rehashes a large number of variables:
+ * <ul>
+ * <li>Loading: put() one by one, which doubles the table every time it gets 80% full, against
+ * putAll(), which grows the table once for all the variables.</li>
+ * <li>Rehash: the table is rehashed to a bigger capacity by a single thread and then by pools
+ * of 1, 2, 4... threads up to the number of processors, reporting the speedup of each pool
+ * over the single thread.</li>
+ * </ul>
+ * Names are random, so the time doesn't depend on how the hash codes of similar names cluster.
+ * Usage: java RehashBenchmark [variables] [maxThreads]
+ *
+ * @author Sergio Delgado
+ */
+public class RehashBenchmark
+{
+	private static final int ROUNDS = 5;   // rehashes of each measurement (the best one is reported)
+
+
+	/**
+	 * Returns the best time of several rehashes of a table, alternating between two capacities
+	 * so every round moves every element.
+	 * @param table SymbolTable to rehash.
+	 * @param pool ForkJoinPool that does the rehash, or null for a single thread.
+	 * @return long with the best time in nanoseconds.
+	 */
+	private static long timeRehash(SymbolTable<Integer> table, ForkJoinPool pool)
+	{
+		int capacity = table.getCapacity();
+		long best = Long.MAX_VALUE;
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			int newSize = round % 2 == 0 ? capacity * 2 : capacity;
+			long start = System.nanoTime();
+			table.rehash(newSize, pool);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		table.rehash(capacity, pool);
+		return best;
+	}
+
+
+	/**
+	 * Creates random variables, loads them and rehashes the table, printing the time of each step.
+	 * @param args Optional number of variables (default 1000000) and maximum number of threads
+	 * (default number of processors).
+	 */
+	public static void main(String[] args)
+	{
+		int variables = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Random random = new Random(310);
+
+		TableEntry<String,Integer>[] entries = SymbolTable.newEntries(variables);
+		for (int i = 0; i < variables; i++)
+			entries[i] = new TableEntry<>("v" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36), i);
+
+		SymbolTable<Integer> table = null;
+		long putNanos = Long.MAX_VALUE;
+		long putAllNanos = Long.MAX_VALUE;
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			table = new SymbolTable<>(5);
+			for (TableEntry<String,Integer> entry : entries)
+				table.put(entry.getKey(), entry.getValue());
+			putNanos = Math.min(putNanos, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			table = new SymbolTable<>(5);
+			table.putAll(entries);
+			putAllNanos = Math.min(putAllNanos, System.nanoTime() - start);
+		}
+
+		System.out.printf("put one by one   %8.1f ms%n", putNanos / 1e6);
+		System.out.printf("putAll           %8.1f ms (capacity %d)%n", putAllNanos / 1e6, table.getCapacity());
+
+		long single = timeRehash(table, null);
+		System.out.printf("rehash, 1 thread %8.1f ms%n", single / 1e6);
+
+		int threads = 1;
+		while (threads <= maxThreads)
+		{
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			long time = timeRehash(table, pool);
+			pool.shutdown();
+			System.out.printf("rehash, pool %-3d %8.1f ms, speedup %.2f%n", threads, time / 1e6, (double)single / time);
+
+			threads = threads == maxThreads ? threads + 1 : Math.min(threads * 2, maxThreads);   // 1, 2, 4... and the maximum
+		}
+
+		boolean found = true;
+		for (int i = 0; i < variables; i += 997)
+			found = found && table.get(entries[i].getKey()) != null;
+		System.out.println(found ? "every variable checked was found" : "a variable was lost!");
+	}
+}
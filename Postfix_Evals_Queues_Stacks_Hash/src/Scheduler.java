@@ -0,0 +1,251 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+
+/**
+ * This class time-slices the execution of many programs (queues of symbols or compiled
+ * programs), each one on its own Computer, in round robin order. Every time a program gets its
+ * turn it processes a quantum of symbols, and the size of that quantum is adapted after each
+ * turn so the turn lasts about the latency target: programs whose symbols are cheap get bigger
+ * quanta and programs whose symbols are expensive get smaller ones, so every program gets a
+ * similar share of time per round.
+ *
+ * @author Sergio Delgado
+ */
+public class Scheduler
+{
+	public static final long DEFAULT_TARGET_NANOS = 1000000;   // 1 ms per turn
+	private static final int MIN_QUANTUM = 1;
+	private static final int MAX_QUANTUM = 1 << 20;
+	private static final int FIRST_QUANTUM = 10;
+
+	private long targetNanos;         // desired duration of a turn
+	private ArrayDeque<Task> ready;   // programs waiting for their turn
+
+
+	/**
+	 * This class holds one program being executed: the computer that runs it, the remaining
+	 * symbols of the program (or the compiled program and its next instruction) and the size
+	 * of its current quantum.
+	 */
+	public static class Task
+	{
+		private Computer computer;
+		private Node<String> input;
+		private Program program;
+		private int pc;
+		private int quantum;
+		private long turns;
+		private long busyNanos;
+
+		/**
+		 * Constructor that receives the computer and the program queue to run on it.
+		 * @param computer Computer that runs the program.
+		 * @param input Node that is the head of the program queue.
+		 */
+		private Task(Computer computer, Node<String> input)
+		{
+			this.computer = computer;
+			this.input = input;
+			this.quantum = FIRST_QUANTUM;
+		}
+
+		/**
+		 * Constructor that receives the computer and the compiled program to run on it.
+		 * @param computer Computer that runs the program.
+		 * @param program Program to run, from its first instruction.
+		 */
+		private Task(Computer computer, Program program)
+		{
+			this.computer = computer;
+			this.program = program;
+			this.pc = 0;
+			this.quantum = FIRST_QUANTUM;
+		}
+
+		/**
+		 * Runs up to quantum symbols (or instructions) of the program.
+		 */
+		private void runQuantum()
+		{
+			if (program != null)
+				pc = computer.execute(program, pc, quantum);
+			else
+				input = computer.process(input, quantum);
+		}
+
+		/**
+		 * Returns the computer that runs the program.
+		 * @return Computer of this task.
+		 */
+		public Computer getComputer()
+		{
+			return computer;
+		}
+
+		/**
+		 * Returns whether or not the whole program has been processed.
+		 * @return Boolean value, true when no symbols remain.
+		 */
+		public boolean isFinished()
+		{
+			return program != null ? pc >= program.length() : input == null;
+		}
+
+		/**
+		 * Returns the number of symbols the program will process in its next turn.
+		 * @return int with the size of the quantum.
+		 */
+		public int getQuantum()
+		{
+			return quantum;
+		}
+
+		/**
+		 * Returns the number of turns the program has had.
+		 * @return long with the number of turns.
+		 */
+		public long getTurns()
+		{
+			return turns;
+		}
+
+		/**
+		 * Returns the total time the program has spent executing.
+		 * @return long with the nanoseconds spent in all turns.
+		 */
+		public long getBusyNanos()
+		{
+			return busyNanos;
+		}
+	}
+
+
+	/**
+	 * Constructor that receives the latency target of a turn.
+	 * @param targetNanos long with the desired duration of a turn, in nanoseconds.
+	 */
+	public Scheduler(long targetNanos)
+	{
+		this.targetNanos = targetNanos;
+		ready = new ArrayDeque<>();
+	}
+
+
+	/**
+	 * Adds a program to the scheduler. It gets its first turn after the programs already waiting.
+	 * @param computer Computer that runs the program.
+	 * @param input Node that is the head of the program queue.
+	 * @return Task that tracks the execution of the program.
+	 */
+	public Task submit(Computer computer, Node<String> input)
+	{
+		Task task = new Task(computer, input);
+		if (!task.isFinished())
+			ready.add(task);
+		return task;
+	}
+
+
+	/**
+	 * Adds a compiled program to the scheduler. It gets its first turn after the programs already waiting.
+	 * @param computer Computer that runs the program.
+	 * @param program Program to run (without compilation errors).
+	 * @return Task that tracks the execution of the program.
+	 */
+	public Task submit(Computer computer, Program program)
+	{
+		Task task = new Task(computer, program);
+		if (!task.isFinished())
+			ready.add(task);
+		return task;
+	}
+
+
+	/**
+	 * Gives one turn to the next program waiting: it processes a quantum of its symbols, and then
+	 * the quantum is resized towards the one that would have lasted exactly the latency target.
+	 * The new quantum is the average of the old one and that estimate, so a single slow turn
+	 * doesn't change it too much. Unfinished programs go back to the end of the queue.
+	 * @return Boolean value, false if there were no programs waiting.
+	 */
+	public boolean runTurn()
+	{
+		Task task = ready.poll();
+		if (task == null)
+			return false;
+
+		long start = System.nanoTime();
+		task.runQuantum();
+		long elapsed = Math.max(1, System.nanoTime() - start);
+
+		task.turns++;
+		task.busyNanos += elapsed;
+
+		long estimate = task.quantum * targetNanos / elapsed;
+		long quantum = (task.quantum + estimate) / 2;
+		task.quantum = (int)Math.max(MIN_QUANTUM, Math.min(MAX_QUANTUM, quantum));
+
+		if (!task.isFinished())
+			ready.add(task);
+
+		return true;
+	}
+
+
+	/**
+	 * Gives turns to the programs until all of them finish.
+	 */
+	public void run()
+	{
+		while (runTurn());
+	}
+
+
+	/**
+	 * Tests the class Scheduler with calls to its methods.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args)
+	{
+		String loop = "n 200000 = top label n 1 n - = n end jz top jmp end label";
+
+		Scheduler scheduler = new Scheduler(DEFAULT_TARGET_NANOS);
+		Task cheap = scheduler.submit(new Computer(), Program.compile(Computer.stringToNodeQueue(loop)));
+		for (int i = 0; i < 20 && !cheap.isFinished(); i++)
+			scheduler.runTurn();
+		if (cheap.getTurns() > 1 && cheap.getQuantum() > FIRST_QUANTUM)   // cheap instructions, bigger quanta
+			System.out.println("Yay 1");
+
+		scheduler = new Scheduler(1);
+		Task slow = scheduler.submit(new Computer(), Program.compile(Computer.stringToNodeQueue(loop)));
+		for (int i = 0; i < 20; i++)
+			scheduler.runTurn();
+		if (slow.getQuantum() == MIN_QUANTUM && !slow.isFinished())   // every turn goes over the target
+			System.out.println("Yay 2");
+
+		scheduler = new Scheduler(DEFAULT_TARGET_NANOS);
+		Task[] tasks = new Task[3];
+		Program longer = Program.compile(Computer.stringToNodeQueue(loop.replace("200000", "5000000")));
+		for (int i = 0; i < 2; i++)
+			tasks[i] = scheduler.submit(new Computer(), longer);
+		Computer brief = new Computer();
+		brief.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		tasks[2] = scheduler.submit(brief, Computer.stringToNodeQueue("x 1 = y x 2 * = y print"));
+
+		boolean fair = true;
+		for (int turn = 1; turn <= 30; turn++)   // the long programs take turns, the first one submitted first
+		{
+			scheduler.runTurn();
+			long difference = tasks[0].getTurns() - tasks[1].getTurns();
+			fair = fair && (difference == 0 || difference == 1) && !tasks[1].isFinished();
+		}
+		if (fair && tasks[2].isFinished() && tasks[2].getTurns() == 1 && brief.symbols.get("y") == 2)
+			System.out.println("Yay 3");
+
+		scheduler.run();
+		if (tasks[0].isFinished() && tasks[1].isFinished() && tasks[0].getComputer().symbols.get("n") == 0
+				&& tasks[1].getComputer().getError() == null && !scheduler.runTurn())
+			System.out.println("Yay 4");
+	}
+}
@@ -1,6 +1,11 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
 /**
  * This is a class that manages that will manage the storage of variables and their
- * value in a Hash Table structure
+ * value in a Hash Table structure. Bindings can be grouped in nested frames (scopes) that
+ * are discarded with an undo log when popped.
  *
  * @version 1.0
  * @author Sergio Delgado.
@@ -9,9 +14,13 @@
  */
 public class SymbolTable<T> 
 {
+	private static final int PARALLEL_THRESHOLD = 1 << 17;   // capacity from which rehash() uses every core
+	
 	private TableEntry<String,T>[] storage;   // Array of of elements for the hash table
 	private int capacity;                     // Total capacity of the hash table of variables
 	private int size;                         // Total of elements currently active on the table
+	private ProgramStack<TableEntry<String,T>> undoLog;   // bindings replaced inside the open frames
+	private ProgramStack<Integer> frames;                 // size of the undo log when each frame was pushed
 	
 	
 	/**
@@ -24,6 +33,8 @@ public class SymbolTable<T>
 		storage = new TableEntry[s];		
 		capacity = s;
 		size = 0;
+		undoLog = new ProgramStack<>();
+		frames = new ProgramStack<>();
 	}
 	
 	/**
@@ -92,11 +103,30 @@ public class SymbolTable<T>
 	 * to handle collisions. If the key already exists in the table replace the 
 	 * current value with v. If the key isn't found in the table and the table is greater or equal to 80% full
 	 * after the current element addition, the table is expanded to twice its size and rehashed.
+	 * If a frame is open, the previous binding of k is saved so popFrame() can restore it.
 	 * @param k String with key of the element of the table.
 	 * @param v generic type value of the element of the table.
 	 */
 	public void put(String k, T v) 
 	{
+		T previous = store(k, v);
+		
+		if (!frames.isEmpty())                          // if inside a frame, remember the old binding
+			undoLog.push(new TableEntry<>(k, previous));
+		
+		return;
+	}
+	
+	
+	/**
+	 * Does the work of put() without recording anything in the undo log.
+	 * @param k String with key of the element of the table.
+	 * @param v generic type value of the element of the table.
+	 * @return generic type (T) with the value previously bound to k, or null if there was none.
+	 */
+	private T store(String k, T v)
+	{
+		T previous = null;
 		int position = getPosition(k);
 		
 		if (position == -1)   // if the new element didn't already exist in the table
@@ -104,6 +134,8 @@ public class SymbolTable<T>
 			position = getFirstFreeSpace(k);    // find available place in table to add element
 			size++;                             // and increase the size of table
 		}
+		else
+			previous = storage[position].getValue();
 		
 		storage[position] = new TableEntry<>(k,v);  // insert the element
 		
@@ -111,19 +143,36 @@ public class SymbolTable<T>
 		if ( load >= 0.8 )                   //  check for size over capacity
 			rehash(capacity * 2);
 		
-		return;
+		return previous;
 	}
 
 	
 	/**
 	 * Removes the given key (and associated value) from the table. It uses tombstones to mark
-	 * removed elements (turning the table space inactive).
+	 * removed elements (turning the table space inactive). If a frame is open, the removed
+	 * binding is saved so popFrame() can restore it.
 	 * Worst case: O(n), Average case: O(1)
 	 * @param k String with the key of the element to remove. 
 	 * @return generic type (T) with the value of the element removed from table, and 
 	 * returns null if the element is not in the table.
 	 */
 	public T remove(String k) 
+	{
+		T value = delete(k);
+		
+		if (value != null && !frames.isEmpty())
+			undoLog.push(new TableEntry<>(k, value));
+		
+		return value;
+	}
+	
+	
+	/**
+	 * Does the work of remove() without recording anything in the undo log.
+	 * @param k String with the key of the element to remove. 
+	 * @return generic type (T) with the value of the element removed from table, or null.
+	 */
+	private T delete(String k)
 	{
 		T value = null;
 
@@ -139,6 +188,53 @@ public class SymbolTable<T>
 		return value;
 	}
 	
+	
+	/**
+	 * Opens a new frame (scope). Every binding put or removed while the frame is open is
+	 * discarded when the frame is popped, restoring the bindings of the outer frames.
+	 * Lookups still probe a single table, so variables of outer frames are found with no
+	 * extra cost. Complexity O(1).
+	 */
+	public void pushFrame()
+	{
+		frames.push(undoLog.size());
+	}
+	
+	
+	/**
+	 * Closes the innermost frame, undoing every put and remove made since it was pushed, newest
+	 * first. Complexity O(m), where m is the number of puts and removes made inside the frame.
+	 * @return Boolean value with whether or not there was a frame to pop.
+	 */
+	public boolean popFrame()
+	{
+		if (frames.isEmpty())
+			return false;
+		
+		int mark = frames.pop();
+		while (undoLog.size() > mark)
+		{
+			TableEntry<String,T> binding = undoLog.pop();
+			
+			if (binding.getValue() == null)   // the key didn't exist before the frame changed it
+				delete(binding.getKey());
+			else
+				store(binding.getKey(), binding.getValue());
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the number of frames currently open. Complexity O(1).
+	 * @return int with the number of open frames (0 means only global bindings).
+	 */
+	public int getFrameDepth()
+	{
+		return frames.size();
+	}
+	
 
 	/**
 	 * Returns the value if the element of the table whose key equal parameter k.
@@ -180,36 +276,272 @@ public class SymbolTable<T>
 	/**
 	 * Increase or decrease the size of the storage, rehashing all values.
 	 * If the new size won't fit all the elements, return false and do not rehash.
-	 * Return true if you were able to rehash.
+	 * Return true if you were able to rehash. Large tables are rehashed in parallel on the
+	 * common ForkJoinPool (see rehash(int, ForkJoinPool)).
 	 * @param newSize int with the new capacity of the table (storage).
 	 * @return Boolean value with whether or not the rehashing was executed.
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean rehash(int newSize) 
 	{
-		boolean success = true;
+		ForkJoinPool pool = ForkJoinPool.commonPool();
 		
+		if (capacity >= PARALLEL_THRESHOLD && pool.getParallelism() > 1)
+			return rehash(newSize, pool);
+		else
+			return rehash(newSize, null);
+	}
+	
+	
+	/**
+	 * Increase or decrease the size of the storage, moving every element to its place in the new
+	 * storage. Since the keys are known to be different, an element is just placed in the first
+	 * free space from its hash code, without comparing keys, checking the load or allocating a new
+	 * entry. If the table is still 80% full at the new size, it is doubled again.
+	 * With a pool, the new storage is split in one range of positions per task and each task places
+	 * the elements whose hash code falls in its range (see scatter()).
+	 * Complexity O(capacity + newSize), divided among the threads of the pool.
+	 * @param newSize int with the new capacity of the table (storage).
+	 * @param pool ForkJoinPool whose threads place the elements, or null to place them in this thread.
+	 * @return Boolean value with whether or not the rehashing was executed.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean rehash(int newSize, ForkJoinPool pool) 
+	{
 		if (newSize < size)
-			success = false;
-
-		else    // if new size of table fits all its current elements then ...
+			return false;
+		
+		TableEntry<String,T>[] oldStorage = storage;  // save pointer to the old storage
+		storage = new TableEntry[newSize];            // create new storage with the new size
+		capacity = newSize;
+		
+		if (pool == null)
 		{
-			TableEntry<String,T>[] oldStorage = storage;  // save pointer to the old storage
+			for (int i=0; i<oldStorage.length; i++)    //  place elements in new storage (one by one)
+				if (oldStorage[i] != null && !oldStorage[i].getKey().equals("Tombstone"))
+					place(oldStorage[i], Math.abs(oldStorage[i].getKey().hashCode()) % capacity);
+		}
+		else
+			scatter(oldStorage, pool);
+		
+		float load = (float)(size)/capacity;
+		if ( load >= 0.8 )                   //  the new size was too small to stay below 80%
+			rehash(capacity * 2, pool);
+		
+		return true;
+	}
 	
-			storage =  new TableEntry[newSize];    // create new storage with twice the size
-			size = 0;
-			capacity = newSize;
-
-			for(int i=0; i<oldStorage.length; i++)    //  insert elements in new storage (one by one)
+	
+	/**
+	 * Places an element in the first free space of the storage from the given position, wrapping
+	 * around at the end. The key of the element must not be in the table yet.
+	 * @param entry TableEntry to place.
+	 * @param position int with the position given by the hash code of its key.
+	 */
+	private void place(TableEntry<String,T> entry, int position)
+	{
+		while (storage[position] != null)
+			position = (position + 1) % capacity;
+		storage[position] = entry;
+	}
+	
+	
+	/**
+	 * Runs the given number of tasks on a pool and waits for all of them to finish.
+	 * @param pool ForkJoinPool that runs the tasks.
+	 * @param tasks int with the number of tasks.
+	 * @param task IntConsumer that receives the number of each task.
+	 */
+	private static void runTasks(ForkJoinPool pool, int tasks, IntConsumer task)
+	{
+		ForkJoinTask<?>[] jobs = new ForkJoinTask<?>[tasks];
+		for (int t = 0; t < tasks; t++)
+		{
+			int id = t;
+			jobs[t] = ForkJoinTask.adapt(() -> task.accept(id));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(jobs)));
+	}
+	
+	
+	/**
+	 * Places the elements of the old storage in the new one in parallel. The new storage is split
+	 * in ranges of positions (several per thread, to balance the load) and each range has a task:
+	 * <ol>
+	 * <li>Each task takes a slice of the old storage, finds the position of each of its elements
+	 * and counts how many fall in each range.</li>
+	 * <li>With those counts, each task copies its elements to an array grouped by range, so the
+	 * elements of a range keep the order they had in the old storage.</li>
+	 * <li>Each task places the elements of its range, probing only inside its range, so no two
+	 * tasks write the same position. An element that finds its range full from its position to
+	 * the end is left for the last step.</li>
+	 * <li>The elements left are placed one by one, probing past the end of their range.</li>
+	 * </ol>
+	 * Every element ends up after a run of occupied positions that starts at its hash position,
+	 * so it is found by get() the same way as if it had been placed by put().
+	 * @param oldStorage Array of TableEntry with the elements to place (and tombstones to skip).
+	 * @param pool ForkJoinPool whose threads do the work.
+	 */
+	private void scatter(TableEntry<String,T>[] oldStorage, ForkJoinPool pool)
+	{
+		int ranges = Math.max(1, Math.min(capacity, pool.getParallelism() * 4));
+		int[] homes = new int[oldStorage.length];                      // hash position of each old element
+		int[][] counts = new int[ranges][ranges];                      // elements of each slice in each range
+		TableEntry<String,T>[] grouped = newEntries(size);             // elements grouped by range
+		int[] groupedHomes = new int[size];
+		boolean[] left = new boolean[size];                            // elements whose range was full
+		int[] firsts = new int[ranges + 1];                            // first grouped element of each range
+		int[][] offsets = new int[ranges][ranges];                     // where each slice copies each range
+		
+		runTasks(pool, ranges, slice -> {
+			int from = (int)((long)slice * oldStorage.length / ranges);
+			int to = (int)((long)(slice + 1) * oldStorage.length / ranges);
+			for (int i = from; i < to; i++)
 			{
-				if (oldStorage[i] != null)                 // if current element is not an empty space
-					if (!oldStorage[i].getKey().equals("Tombstone"))  // if current element is not a tombstone
-						put(oldStorage[i].getKey(), oldStorage[i].getValue());  // add current element.
+				if (oldStorage[i] != null && !oldStorage[i].getKey().equals("Tombstone"))
+				{
+					homes[i] = Math.abs(oldStorage[i].getKey().hashCode()) % capacity;
+					counts[slice][(int)((long)homes[i] * ranges / capacity)]++;
+				}
+				else
+					homes[i] = -1;
+			}
+		});
+		
+		int next = 0;
+		for (int range = 0; range < ranges; range++)
+		{
+			firsts[range] = next;
+			for (int slice = 0; slice < ranges; slice++)
+			{
+				offsets[slice][range] = next;
+				next += counts[slice][range];
 			}
-			
 		}
-
-		return success;	
+		firsts[ranges] = next;
+		
+		runTasks(pool, ranges, slice -> {
+			int from = (int)((long)slice * oldStorage.length / ranges);
+			int to = (int)((long)(slice + 1) * oldStorage.length / ranges);
+			int[] offset = offsets[slice];
+			for (int i = from; i < to; i++)
+			{
+				if (homes[i] >= 0)
+				{
+					int range = (int)((long)homes[i] * ranges / capacity);
+					grouped[offset[range]] = oldStorage[i];
+					groupedHomes[offset[range]] = homes[i];
+					offset[range]++;
+				}
+			}
+		});
+		
+		runTasks(pool, ranges, range -> {
+			int end = (int)(((long)(range + 1) * capacity + ranges - 1) / ranges);   // first position of the next range
+			for (int k = firsts[range]; k < firsts[range + 1]; k++)
+			{
+				int position = groupedHomes[k];
+				while (position < end && storage[position] != null)
+					position++;
+				
+				if (position < end)
+					storage[position] = grouped[k];
+				else
+					left[k] = true;
+			}
+		});
+		
+		for (int k = 0; k < grouped.length; k++)
+			if (left[k])
+				place(grouped[k], groupedHomes[k]);
+	}
+	
+	
+	/**
+	 * Puts every element of an array in the table, the same way put() does, but first grows the
+	 * table once to a capacity that keeps it below 80% full with all of them, so loading many
+	 * elements doesn't double the table again and again.
+	 * Complexity O(capacity + n), where n is the number of elements put.
+	 * @param entries Array of TableEntry with the keys and values to put.
+	 */
+	public void putAll(TableEntry<String,T>[] entries)
+	{
+		long needed = (long)((size + (long)entries.length) / 0.8) + 1;   // smallest capacity below 80% full
+		
+		if (needed > capacity)
+			rehash((int)Math.min(Integer.MAX_VALUE - 8, needed));
+		
+		for (TableEntry<String,T> entry : entries)
+			put(entry.getKey(), entry.getValue());
+	}
+	
+	
+	/**
+	 * Puts every active element of another table in this one (see putAll(TableEntry[])).
+	 * @param other SymbolTable whose elements are put.
+	 */
+	public void putAll(SymbolTable<T> other)
+	{
+		putAll(other.entries());
+	}
+	
+	/**
+	 * Removes every element of the table and closes every frame, keeping its capacity so the
+	 * table can be reused without allocating it again. Complexity O(capacity).
+	 */
+	public void clear()
+	{
+		for (int i=0; i<capacity; i++)
+			storage[i] = null;
+		
+		size = 0;
+		undoLog.clear();
+		frames.clear();
+	}
+	
+	/**
+	 * Returns the element stored at a position of the table, as it is: null for an empty space,
+	 * a tombstone (see isTombstone()) or an active element. Used to copy the layout of the table
+	 * (see MappedSymbolTable). Complexity O(1).
+	 * @param index int with the position on the table.
+	 * @return TableEntry stored at that position, or null.
+	 */
+	TableEntry<String,T> getSlot(int index)
+	{
+		return storage[index];
+	}
+	
+	/**
+	 * Creates an empty array of elements. Java can't create an array of a generic type, so an
+	 * array of TableEntry is created and cast.
+	 * @param length int with the length of the array.
+	 * @return Array of TableEntry with every element null.
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> TableEntry<String,V>[] newEntries(int length)
+	{
+		return (TableEntry<String,V>[])new TableEntry<?,?>[length];
+	}
+	
+	/**
+	 * Returns an array with every active element of the table (tombstones and empty spaces are
+	 * skipped), in the order they are stored in the table. Complexity O(capacity).
+	 * @return Array of TableEntry with the key and value of each active element.
+	 */
+	public TableEntry<String,T>[] entries()
+	{
+		TableEntry<String,T>[] array = newEntries(size);
+		int j = 0;
+		
+		for (int i=0; i<capacity; i++)
+		{
+			if (storage[i] != null && !isTombstone(i))
+			{
+				array[j] = storage[i];
+				j++;
+			}
+		}
+		
+		return array;
 	}
 	
 	public static void main(String[] args) {
@@ -277,6 +609,45 @@ public class SymbolTable<T>
 				System.out.println("Yay 11");
 			}
 		}
+		
+		SymbolTable<Integer> st4 = new SymbolTable<>(5);
+		st4.put("x", 1);
+		st4.put("y", 2);
+		st4.pushFrame();
+		st4.put("x", 10);
+		st4.put("z", 30);
+		st4.remove("y");
+		st4.put("x", 11);
+		
+		if(st4.getFrameDepth() == 1 && st4.get("x").equals(11) && st4.get("y") == null && st4.get("z").equals(30) && st4.size() == 2) {
+			st4.popFrame();
+			if(st4.getFrameDepth() == 0 && st4.get("x").equals(1) && st4.get("y").equals(2) && st4.get("z") == null && st4.size() == 2 && !st4.popFrame()) {
+				System.out.println("Yay 12");
+			}
+		}
+		
+		SymbolTable<Integer> st5 = new SymbolTable<>(5);
+		SymbolTable<Integer> st6 = new SymbolTable<>(5);
+		for (int i = 0; i < 1000; i++)
+			st5.put("v" + i, i);
+		st5.remove("v500");
+		st6.putAll(st5);
+		
+		if(st6.size() == 999 && st6.getCapacity() == 1249 && st6.get("v999").equals(999) && st6.get("v500") == null) {
+			System.out.println("Yay 13");
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(3);
+		boolean same = st5.rehash(4000, pool) && st5.getCapacity() == 4000 && st5.size() == 999;
+		for (int i = 0; i < 1000; i++)
+			same = same && (i == 500 ? st5.get("v" + i) == null : st5.get("v" + i).equals(i));
+		st5.rehash(1000, pool);   // too small for 80%: doubled again
+		same = same && st5.getCapacity() == 2000 && st5.get("v0").equals(0) && st5.get("v998").equals(998);
+		pool.shutdown();
+		
+		if(same) {
+			System.out.println("Yay 14");
+		}
 	}
 	
 	//--------------Provided methods below this line--------------
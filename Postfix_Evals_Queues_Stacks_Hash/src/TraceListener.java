@@ -0,0 +1,54 @@
+/**
+ * This interface receives the changes a Computer makes to its state while it processes
+ * a program, one call per change, so a trace of the execution can be produced without
+ * printing the whole program stack and symbol table after every symbol.
+ *
+ * @author Sergio Delgado
+ */
+public interface TraceListener
+{
+	/**
+	 * Called before a symbol of the program is processed.
+	 * @param position long value with the offset of the symbol in the program.
+	 * @param symbol String value of the symbol.
+	 */
+	void step(long position, String symbol);
+
+	/**
+	 * Called after a value is pushed onto the program stack.
+	 * @param value Object pushed.
+	 */
+	void pushed(Object value);
+
+	/**
+	 * Called after a value is popped off the program stack.
+	 * @param value Object popped (null if the stack was empty).
+	 */
+	void popped(Object value);
+
+	/**
+	 * Called after a value is assigned to a variable.
+	 * @param variable String with the name of the variable.
+	 * @param value int value assigned.
+	 */
+	void stored(String variable, int value);
+
+	/**
+	 * Called after step() when the symbol is an instruction of a compiled program, with the state
+	 * it starts from. Listeners that only need the symbols can ignore it.
+	 * @param pc int with the index of the instruction in the program.
+	 * @param opcode int with the opcode of the instruction (see Program).
+	 * @param depth int with the number of elements in the program stack.
+	 */
+	default void instruction(int pc, int opcode, int depth)
+	{
+	}
+
+	/**
+	 * Called when the program stops with a run time error.
+	 * @param error ProgramError that stopped the program.
+	 */
+	default void stopped(ProgramError error)
+	{
+	}
+}
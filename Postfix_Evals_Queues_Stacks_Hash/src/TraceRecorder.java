@@ -0,0 +1,529 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * This class records the execution of a program into a ring buffer of fixed size, so a program
+ * can be traced all the time it runs and only its last events are kept: every symbol processed
+ * (with its position and, for a compiled program, the index, opcode and stack depth of its
+ * instruction), every value pushed and popped and every assignment. Each event is two longs
+ * written into a preallocated array; the names of the symbols and variables are kept once in a
+ * table of names and the events refer to them by number, so recording an event doesn't allocate
+ * anything (only a name never seen before is added to the table).
+ * The buffer is saved to a binary file by dump(), which is called on demand or, if the recorder
+ * has a dump file, automatically when the program stops with an error. decode() reads the file
+ * back and prints it in the format of the debug mode of Computer.runProgram, one step per
+ * instruction. The file has the following layout (all numbers are big endian):
+ * <pre>
+ * int magic, int version, long events recorded, long steps recorded, int events in the file,
+ * UTF error that stopped the program ("" if none), int number of names, UTF of each name,
+ * the events in the file from the oldest to the newest: long kind and arguments, long value.
+ * </pre>
+ * Usage: java TraceRecorder run program.txt trace.bin [events]
+ * <br>   java TraceRecorder decode trace.bin
+ *
+ * @author Sergio Delgado
+ */
+public class TraceRecorder implements TraceListener
+{
+	private static final int MAGIC = 0x50465452;   // "PFTR"
+	private static final int VERSION = 1;
+	private static final int MAX_NAMES = 1 << 16;   // distinct names kept, the next ones are recorded as unknown
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final int STEP = 0;          // name of the symbol, value position
+	private static final int INSTRUCTION = 1;   // stack depth and opcode, value index of the instruction
+	private static final int PUSH = 2;          // value pushed
+	private static final int PUSH_NAME = 3;     // name pushed
+	private static final int POP = 4;           // value popped
+	private static final int POP_NAME = 5;      // name popped
+	private static final int POP_NONE = 6;      // pop of an empty stack
+	private static final int STORE = 7;         // name of the variable, value assigned
+
+	private long[] events;      // ring buffer, two longs per event
+	private int mask;           // capacity - 1 (the capacity is a power of 2)
+	private long recorded;      // events recorded, the next one goes to recorded & mask
+	private long steps;         // step events recorded
+	private String[] names;     // name of each number
+	private int[] slots;        // open addressing table of the names, number + 1 (0 if the slot is empty)
+	private int nameCount;      // number of names
+	private ProgramError error; // error that stopped the program (null if none)
+	private String dumpFile;    // file saved when the program stops with an error (null for none)
+
+
+	/**
+	 * Constructor that creates an empty recorder.
+	 * @param capacity int with the number of events kept (rounded up to a power of 2).
+	 * @param dumpFile String with the name of the file saved when the program stops with an
+	 * error, or null to save it only on demand.
+	 */
+	public TraceRecorder(int capacity, String dumpFile)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		events = new long[2 * size];
+		mask = size - 1;
+		names = new String[64];
+		slots = new int[128];
+		this.dumpFile = dumpFile;
+	}
+
+
+	/**
+	 * Returns the number of a name, adding it to the table the first time. Uses linear probing
+	 * over a table that doubles when half full.
+	 * @param name String with the name.
+	 * @return int with the number of the name, or -1 if the table is full.
+	 */
+	private int intern(String name)
+	{
+		int index = name.hashCode() & (slots.length - 1);
+
+		while (slots[index] != 0)
+		{
+			String found = names[slots[index] - 1];
+			if (found == name || found.equals(name))
+				return slots[index] - 1;
+			index = (index + 1) & (slots.length - 1);
+		}
+
+		if (nameCount == MAX_NAMES)
+			return -1;
+
+		if (nameCount == names.length)
+			names = Arrays.copyOf(names, names.length * 2);
+		names[nameCount] = name;
+		slots[index] = ++nameCount;
+
+		if (nameCount * 2 > slots.length)
+		{
+			slots = new int[slots.length * 2];
+			for (int i = 0; i < nameCount; i++)
+			{
+				index = names[i].hashCode() & (slots.length - 1);
+				while (slots[index] != 0)
+					index = (index + 1) & (slots.length - 1);
+				slots[index] = i + 1;
+			}
+		}
+
+		return nameCount - 1;
+	}
+
+
+	/**
+	 * Writes an event into the ring buffer, over the oldest one if the buffer is full.
+	 * @param kind int with the kind of event.
+	 * @param extra int with a small argument (0 to 2^24 - 1).
+	 * @param argument int with an argument of the event.
+	 * @param value long with the value of the event.
+	 */
+	private void record(int kind, int extra, int argument, long value)
+	{
+		int index = (int)(recorded & mask) << 1;
+		events[index] = (long)argument << 32 | extra << 8 | kind;
+		events[index + 1] = value;
+		recorded++;
+	}
+
+
+	/**
+	 * Records the symbol being processed.
+	 * @param position long value with the offset of the symbol in the program.
+	 * @param symbol String value of the symbol.
+	 */
+	public void step(long position, String symbol)
+	{
+		record(STEP, 0, intern(symbol), position);
+		steps++;
+	}
+
+
+	/**
+	 * Records the instruction being executed.
+	 * @param pc int with the index of the instruction in the program.
+	 * @param opcode int with the opcode of the instruction (see Program).
+	 * @param depth int with the number of elements in the program stack.
+	 */
+	public void instruction(int pc, int opcode, int depth)
+	{
+		record(INSTRUCTION, opcode, depth, pc);
+	}
+
+
+	/**
+	 * Records a value pushed onto the program stack (an Integer or the name of a variable).
+	 * @param value Object pushed.
+	 */
+	public void pushed(Object value)
+	{
+		if (value instanceof Integer)
+			record(PUSH, 0, 0, (Integer)value);
+		else
+			record(PUSH_NAME, 0, intern(value.toString()), 0);
+	}
+
+
+	/**
+	 * Records a value popped off the program stack.
+	 * @param value Object popped (null if the stack was empty).
+	 */
+	public void popped(Object value)
+	{
+		if (value instanceof Integer)
+			record(POP, 0, 0, (Integer)value);
+		else if (value == null)
+			record(POP_NONE, 0, 0, 0);
+		else
+			record(POP_NAME, 0, intern(value.toString()), 0);
+	}
+
+
+	/**
+	 * Records an assignment to a variable.
+	 * @param variable String with the name of the variable.
+	 * @param value int value assigned.
+	 */
+	public void stored(String variable, int value)
+	{
+		record(STORE, 0, intern(variable), value);
+	}
+
+
+	/**
+	 * Records the error that stopped the program and, if the recorder has a dump file, saves the
+	 * buffer to it. A failure to save is printed instead of stopping the caller.
+	 * @param error ProgramError that stopped the program.
+	 */
+	public void stopped(ProgramError error)
+	{
+		this.error = error;
+
+		if (dumpFile != null)
+		{
+			try
+			{
+				dump(dumpFile);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Could not save the trace to " + dumpFile + ": " + e);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of events recorded, including the ones already overwritten.
+	 * @return long with the number of events.
+	 */
+	public long getRecorded()
+	{
+		return recorded;
+	}
+
+
+	/**
+	 * Forgets every event and the error, keeping the buffer and the names.
+	 */
+	public void clear()
+	{
+		recorded = 0;
+		steps = 0;
+		error = null;
+	}
+
+
+	/**
+	 * Saves the events in the buffer to a file (see the class comment), which replaces the old
+	 * file (if any) at once. It has to be called by the thread running the program, between two
+	 * of its instructions. Complexity O(capacity + number of names).
+	 * @param filename String with the name of the file.
+	 * @throws IOException Handles the exceptions related to writing the file.
+	 */
+	public void dump(String filename) throws IOException
+	{
+		Path file = Paths.get(filename);
+		Path tempFile = Paths.get(filename + ".tmp");
+		long first = Math.max(0, recorded - (mask + 1));
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(recorded);
+			out.writeLong(steps);
+			out.writeInt((int)(recorded - first));
+			out.writeUTF(error == null ? "" : error.toString());
+
+			out.writeInt(nameCount);
+			for (int i = 0; i < nameCount; i++)
+				out.writeUTF(names[i]);
+
+			for (long event = first; event < recorded; event++)
+			{
+				int index = (int)(event & mask) << 1;
+				out.writeLong(events[index]);
+				out.writeLong(events[index + 1]);
+			}
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Returns the text of a name read from a trace file.
+	 * @param names Array of Strings with the names of the file.
+	 * @param number int with the number of the name (-1 if it wasn't kept).
+	 * @return String with the name, or "?".
+	 */
+	private static String name(String[] names, int number)
+	{
+		return number >= 0 && number < names.length ? names[number] : "?";
+	}
+
+
+	/**
+	 * Prints a trace file saved by dump() in the format of the debug mode of Computer.runProgram:
+	 * for every step, the output it printed, the changes it made (with the instruction it
+	 * executed, if the program was compiled) and the next symbol. The events recorded before the
+	 * first complete step in the file are skipped.
+	 * @param filename String with the name of the file.
+	 * @param out PrintStream where the trace is printed.
+	 * @throws IOException Handles the exceptions related to reading the file, or a file that is
+	 * not a valid trace.
+	 */
+	public static void decode(String filename, PrintStream out) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filename)))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a valid trace file: " + filename);
+
+			long recorded = in.readLong();
+			long steps = in.readLong();
+			int count = in.readInt();
+			String error = in.readUTF();
+			String[] names = new String[in.readInt()];
+			for (int i = 0; i < names.length; i++)
+				names[i] = in.readUTF();
+
+			long[] events = new long[2 * count];
+			int stepsInFile = 0;
+			for (int i = 0; i < events.length; i += 2)
+			{
+				events[i] = in.readLong();
+				events[i + 1] = in.readLong();
+				if ((events[i] & 0xFF) == STEP)
+					stepsInFile++;
+			}
+
+			if (recorded > count)
+				out.println("(" + (recorded - count) + " earlier events were overwritten)");
+
+			long step = steps - stepsInFile;
+			StringBuilder output = new StringBuilder();
+			StringBuilder changes = new StringBuilder();
+			String symbol = null;
+
+			for (int i = 0; i <= events.length; i += 2)
+			{
+				int kind = i < events.length ? (int)(events[i] & 0xFF) : STEP;
+				int extra = i < events.length ? (int)(events[i] >>> 8 & 0xFFFFFF) : 0;
+				int argument = i < events.length ? (int)(events[i] >> 32) : 0;
+				long value = i < events.length ? events[i + 1] : 0;
+
+				if (kind == STEP)
+				{
+					if (symbol != null)   // print the step that ends here
+					{
+						out.println("\n######### Step " + step + " ###############\n");
+						out.println("----------Step Output----------");
+						out.print(output);
+						out.println("----------Changes--------------");
+						out.println(changes.toString().trim());
+						if (i < events.length)
+						{
+							out.println("----------Program Remaining----");
+							out.println("next: " + name(names, argument) + " (symbol " + value + ")");
+						}
+					}
+
+					if (i == events.length)
+						break;
+					step++;
+					symbol = name(names, argument);
+					output.setLength(0);
+					changes.setLength(0);
+					changes.append("symbol [").append(value).append("]: ").append(symbol).append('\n');
+					continue;
+				}
+
+				if (symbol == null)   // the beginning of this step was overwritten
+					continue;
+
+				switch (kind)
+				{
+					case INSTRUCTION:
+						changes.append("instruction ").append(value).append(": ").append(Program.name(extra))
+								.append(", stack depth ").append(argument).append('\n');
+					break;
+
+					case PUSH:
+						changes.append("push ").append(value).append('\n');
+					break;
+
+					case PUSH_NAME:
+						changes.append("push ").append(name(names, argument)).append('\n');
+					break;
+
+					case POP:
+					case POP_NAME:
+					case POP_NONE:
+						String popped = kind == POP ? Long.toString(value) : kind == POP_NAME ? name(names, argument) : "null";
+						changes.append("pop ").append(popped).append('\n');
+						if (symbol.equals("print"))
+							output.append(popped).append('\n');
+					break;
+
+					case STORE:
+						changes.append(name(names, argument)).append(" = ").append(value).append('\n');
+					break;
+
+					default:
+						throw new IOException("Unknown event " + kind + " in trace file: " + filename);
+				}
+			}
+
+			if (!error.isEmpty())
+				out.println("Error: " + error);
+		}
+	}
+
+
+	/**
+	 * Returns the bytes allocated so far by the current thread, or -1 if the JVM doesn't count them.
+	 * @return long with the number of bytes.
+	 */
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+
+	/**
+	 * Runs a program saving its trace to a file (at the end, or when it stops with an error), or
+	 * prints a trace file, as described in the class comment. Without arguments, tests the class
+	 * with calls to its methods.
+	 * @param args Mode (run or decode), the name of the program and the name of the trace file.
+	 * @throws IOException Handles the exceptions related to the files.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if ((args.length == 3 || args.length == 4) && args[0].equals("run"))
+		{
+			TraceRecorder recorder = new TraceRecorder(args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_CAPACITY, args[2]);
+			Computer computer = new Computer();
+			computer.setTraceListener(recorder);
+			computer.runProgram(args[1], false);
+			if (computer.getError() == null)
+				recorder.dump(args[2]);
+			System.out.println(recorder.getRecorded() + " events recorded, trace saved to " + args[2]);
+			return;
+		}
+
+		if (args.length == 2 && args[0].equals("decode"))
+		{
+			decode(args[1], System.out);
+			return;
+		}
+
+		if (args.length != 0)
+		{
+			System.out.println("Usage: java TraceRecorder [run program.txt trace.bin [events] | decode trace.bin]");
+			System.exit(0);
+		}
+
+		Path file = Files.createTempFile("trace", ".bin");
+		file.toFile().deleteOnExit();
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+		TraceRecorder recorder = new TraceRecorder(100, null);
+		Computer computer = new Computer();
+		computer.setOutput(new PrintStream(new ByteArrayOutputStream()));
+		computer.setTraceListener(recorder);
+		computer.run(Program.compile(Computer.stringToNodeQueue("x 3 4 + = x print")));
+		recorder.dump(file.toString());
+		decode(file.toString(), new PrintStream(text, true));
+		String trace = text.toString().replace(System.lineSeparator(), "\n");
+
+		if (trace.contains("######### Step 1 ###############") && trace.contains("######### Step 7 ###############")
+				&& !trace.contains("Step 8") && trace.contains("symbol [2]: 4\ninstruction 2: PUSH, stack depth 2\npush 4")
+				&& trace.contains("pop 7\npop x\nx = 7") && trace.contains("next: print (symbol 6)"))
+			System.out.println("Yay 1");
+
+		if (trace.contains("----------Step Output----------\nx\n----------Changes--------------") && !trace.contains("Error"))
+			System.out.println("Yay 2");
+
+		recorder = new TraceRecorder(16, null);
+		computer = new Computer();
+		computer.setTraceListener(recorder);
+		computer.run(Program.compile(Computer.stringToNodeQueue("n 100 = top label n 1 n - = n end jz top jmp end label")));
+		recorder.dump(file.toString());
+		text.reset();
+		decode(file.toString(), new PrintStream(text, true));
+		trace = text.toString().replace(System.lineSeparator(), "\n");
+
+		if (recorder.getRecorded() > 1000 && trace.contains("earlier events were overwritten")
+				&& !trace.contains("Step 1 ") && trace.endsWith("symbol [12]: end jz\ninstruction 9: JUMP_IF_ZERO, stack depth 1\npop n\n"))
+			System.out.println("Yay 3");
+
+		Files.delete(file);
+		recorder = new TraceRecorder(16, file.toString());
+		computer = new Computer();
+		computer.setTraceListener(recorder);
+		computer.run(Program.compile(Computer.stringToNodeQueue("x 5 = x 5 - 1 / print")));
+		text.reset();
+		decode(file.toString(), new PrintStream(text, true));
+		trace = text.toString().replace(System.lineSeparator(), "\n");
+
+		if (trace.endsWith("Error: DIVISION_BY_ZERO at 7 (/)\n") && trace.contains("instruction 7: OPERATE, stack depth 2"))
+			System.out.println("Yay 4");
+
+		recorder = new TraceRecorder(1024, null);
+		String symbol = "x";
+		Integer value = 1234567;
+		for (int i = 0; i < 100000; i++)   // warm up, so the measure doesn't count the compiler
+		{
+			recorder.step(i, symbol);
+			recorder.pushed(value);
+		}
+
+		long before = allocatedBytes();
+		for (int i = 0; i < 1000000; i++)
+		{
+			recorder.step(i, symbol);
+			recorder.instruction(i, Program.PUSH, 1);
+			recorder.pushed(value);
+			recorder.popped(symbol);
+			recorder.stored(symbol, i);
+		}
+		long allocated = allocatedBytes() - before;
+
+		if (before < 0 || allocated < 1000)   // 5 million events without allocating
+			System.out.println("Yay 5");
+	}
+}
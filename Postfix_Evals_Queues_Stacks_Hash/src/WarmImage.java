@@ -0,0 +1,206 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class prepares a warm evaluator, so short programs don't spend most of their time in the
+ * start of the JVM. It has two uses:
+ * <ul>
+ * <li>Training run for application class data sharing (AppCDS): it runs the given programs once
+ * through Computer so every class they need gets loaded, and the JVM started with
+ * -XX:ArchiveClassesAtExit saves those classes in an archive (see cds/build-cds.sh).</li>
+ * <li>CRaC checkpoint: on a JVM with Coordinated Restore at Checkpoint, it runs the given programs
+ * enough times for analyze and operate to be JIT compiled, creates the pool of warm computers of
+ * an EvaluationServer and then takes a checkpoint of the whole process. Restoring it gives an
+ * evaluation server that answers on the standard input in milliseconds. On a JVM without CRaC
+ * the checkpoint is skipped and the server simply starts after the warm up.</li>
+ * </ul>
+ * Usage: java WarmImage train program1.txt program2.txt ...
+ * <br>   java -XX:CRaCCheckpointTo=dir WarmImage checkpoint program1.txt program2.txt ...
+ * <br>   java -XX:CRaCRestoreFrom=dir
+ *
+ * @author Sergio Delgado
+ */
+public class WarmImage
+{
+	private static final int WARM_UP_INSTRUCTIONS = 20000;   // instructions run per program to trigger the JIT
+	private static Object resource;                          // registered CRaC resource (kept reachable)
+
+
+	/**
+	 * Compiles every program and runs it on a Computer whose output is discarded, until each one
+	 * has executed at least the given number of instructions.
+	 * @param programs Array of Strings with the names of the program files.
+	 * @param instructions int with the minimum number of instructions to execute per program.
+	 * @throws IOException Handles the exceptions related to a file not found.
+	 */
+	public static void warmUp(String[] programs, int instructions) throws IOException
+	{
+		Computer computer = new Computer();
+		computer.setOutput(new PrintStream(new ByteArrayOutputStream()));
+
+		for (String name : programs)
+		{
+			Node<String> queue = Computer.fileToNodeQueue(name);
+			Program program = Program.compile(queue);
+			Computer.releaseQueue(queue);
+			long processed = 0;
+
+			do
+			{
+				computer.reset();
+				computer.run(program);
+				processed += computer.getPosition();
+			}
+			while (processed > 0 && processed < instructions);
+		}
+	}
+
+
+	/**
+	 * Runs every program once through Computer.runProgram, the same path used by Computer.main,
+	 * with the standard output discarded, so every class that path needs gets loaded.
+	 * @param programs Array of Strings with the names of the program files.
+	 * @throws IOException Handles the exceptions related to a file not found.
+	 */
+	public static void train(String[] programs) throws IOException
+	{
+		PrintStream console = System.out;
+		PrintStream discard = new PrintStream(new ByteArrayOutputStream());
+
+		try
+		{
+			System.setOut(discard);
+			for (String program : programs)
+				(new Computer()).runProgram(program, false);
+		}
+		finally
+		{
+			System.setOut(console);
+		}
+	}
+
+
+	/**
+	 * Returns the CRaC Core class of the running JVM, or null if the JVM doesn't support CRaC.
+	 * @return Class of jdk.crac.Core (CRaC JDKs) or org.crac.Core (CRaC library), or null.
+	 */
+	private static Class<?> cracCore()
+	{
+		String[] names = {"jdk.crac.Core", "org.crac.Core"};
+		for (String name : names)
+		{
+			try
+			{
+				return Class.forName(name);
+			}
+			catch (ClassNotFoundException e)
+			{
+				// try the next one
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Registers a resource in the global CRaC context that asks for a garbage collection before
+	 * the checkpoint, so the saved image is smaller, and reports the restore on the standard error.
+	 * @param core Class of the CRaC Core.
+	 * @throws ReflectiveOperationException If the CRaC API doesn't have the expected methods.
+	 */
+	private static void registerCheckpointHook(Class<?> core) throws ReflectiveOperationException
+	{
+		String prefix = core.getPackage().getName();
+		Class<?> resourceClass = Class.forName(prefix + ".Resource");
+
+		resource = Proxy.newProxyInstance(WarmImage.class.getClassLoader(), new Class<?>[] {resourceClass},
+				(proxy, method, args) -> {
+					if (method.getName().equals("beforeCheckpoint"))
+						System.gc();
+					else if (method.getName().equals("afterRestore"))
+						System.err.println("Evaluator restored");
+					else if (method.getName().equals("hashCode"))
+						return System.identityHashCode(proxy);
+					else if (method.getName().equals("equals"))
+						return proxy == args[0];
+					else if (method.getName().equals("toString"))
+						return "WarmImage resource";
+					return null;
+				});
+
+		Object context = core.getMethod("getGlobalContext").invoke(null);
+		Method register = Class.forName(prefix + ".Context").getMethod("register", resourceClass);   // not the internal class of context
+		register.invoke(context, resource);
+	}
+
+
+	/**
+	 * Takes a CRaC checkpoint of the process if the JVM supports it. The method returns twice:
+	 * once in the original process (which is then stopped by the JVM) and once after a restore.
+	 * @return Boolean value with whether or not a checkpoint was taken.
+	 */
+	public static boolean checkpoint()
+	{
+		Class<?> core = cracCore();
+		if (core == null)
+			return false;
+
+		try
+		{
+			registerCheckpointHook(core);
+			core.getMethod("checkpointRestore").invoke(null);
+			return true;
+		}
+		catch (ReflectiveOperationException e)
+		{
+			System.err.println("Checkpoint not taken: " + (e.getCause() != null ? e.getCause() : e));
+			return false;
+		}
+	}
+
+
+	/**
+	 * Runs the training or the checkpoint mode described in the class comment.
+	 * @param args Mode (train or checkpoint) followed by the names of the program files.
+	 * @throws IOException Handles the exceptions related to a file not found.
+	 * @throws InterruptedException If the thread is interrupted while serving programs.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 2 || !(args[0].equals("train") || args[0].equals("checkpoint")))
+		{
+			System.out.println("Usage: java WarmImage [train|checkpoint] program1.txt program2.txt ...");
+			System.exit(0);
+		}
+
+		String[] programs = new String[args.length - 1];
+		System.arraycopy(args, 1, programs, 0, programs.length);
+
+		if (args[0].equals("train"))
+		{
+			train(programs);
+			return;
+		}
+
+		warmUp(programs, WARM_UP_INSTRUCTIONS);
+		int workers = Runtime.getRuntime().availableProcessors();
+		EvaluationServer server = new EvaluationServer(workers);
+		for (int i = 0; i < workers; i++)   // the pool hands out its workers in turn, so all of them get used
+			for (String program : programs)
+				server.evaluate(0, Node.listToString(Computer.fileToNodeQueue(program)), System.nanoTime());
+
+		if (!checkpoint())
+			System.err.println("CRaC is not available, serving without a checkpoint");
+
+		server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+				new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		server.shutdown();
+	}
+}